@@ -0,0 +1,61 @@
+package org.virginiaso.roster_diff;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full DifferenceEngine.compare, including building the Portal
+ * index, at several roster sizes and in both collection modes.  A large
+ * comparison takes seconds, so each iteration times a single call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class DifferenceEngineBenchmark {
+	@Param({ "1000", "10000", "50000" })
+	public int rosterSize;
+
+	@Param({ "0.0", "0.05" })
+	public double manualMatchFraction;
+
+	@Param({ "0.02", "0.1" })
+	public double typoRate;
+
+	@Param({ "SORTED", "HASHED" })
+	public DifferenceEngine.Mode engineMode;
+
+	private List<Match> manualMatches;
+	private List<Student> pStudents;
+	private List<Student> sStudents;
+	private DistanceFunction distanceFunction;
+
+	@Setup
+	public void setUp() {
+		var rosters = new SyntheticRosters(rosterSize, typoRate, manualMatchFraction, 42);
+		manualMatches = rosters.getManualMatches();
+		pStudents = rosters.getPStudents();
+		sStudents = rosters.getSStudents();
+		distanceFunction = new WeightAvgDistanceFunction();
+	}
+
+	@Benchmark
+	public DifferenceEngine compare() {
+		return DifferenceEngine.compare(manualMatches,
+			new RosterIndex(pStudents, distanceFunction), sStudents, engineMode);
+	}
+}
@@ -0,0 +1,79 @@
+package org.virginiaso.roster_diff;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-pair throughput of the distance functions.  Half of the
+ * pairs are a Scilympiad student and the (possibly misspelled) Portal
+ * counterpart, and the other half are unrelated students from the same school,
+ * which is the mix that DifferenceEngine sees within a block.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceFunctionBenchmark {
+	private static final int NUM_PAIRS = 1024;
+
+	@Param({ "simple", "weightAvg" })
+	public String distanceFunctionName;
+
+	@Param({ "0.1" })
+	public double typoRate;
+
+	private DistanceFunction distanceFunction;
+	private Student[] sStudents;
+	private Student[] pStudents;
+
+	@Setup
+	public void setUp() {
+		distanceFunction = switch (distanceFunctionName) {
+			case "simple" -> new SimpleDistanceFunction();
+			case "weightAvg" -> new WeightAvgDistanceFunction();
+			default -> throw new IllegalArgumentException(
+				"Unknown distance function '%1$s'".formatted(distanceFunctionName));
+		};
+
+		var rosters = new SyntheticRosters(NUM_PAIRS, typoRate, 0.0, 42);
+		var pIndex = new RosterIndex(rosters.getPStudents(), new WeightAvgDistanceFunction());
+		var random = new Random(42);
+		sStudents = new Student[NUM_PAIRS];
+		pStudents = new Student[NUM_PAIRS];
+		for (int i = 0; i < NUM_PAIRS; ++i) {
+			var sStudent = rosters.getSStudents().get(i % rosters.getSStudents().size());
+			List<Student> schoolmates = pIndex.getCandidates(sStudent);
+			var nearest = pIndex.findNearest(sStudent, Integer.MAX_VALUE, 1);
+			sStudents[i] = sStudent;
+			pStudents[i] = (i % 2 == 0 && !nearest.isEmpty())
+				? nearest.get(0).student()
+				: schoolmates.get(random.nextInt(schoolmates.size()));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NUM_PAIRS)
+	public int distance() {
+		int sum = 0;
+		for (int i = 0; i < NUM_PAIRS; ++i) {
+			sum += distanceFunction.applyAsInt(sStudents[i], pStudents[i]);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,336 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * An end-to-end benchmark of the roster diff.  For each data set size, it
+ * generates a synthetic data set and runs the whole pipeline against it
+ * (Portal report read, Scilympiad parse, master report parse, comparison,
+ * report writing, and email to a local SMTP stand-in), recording each phase's
+ * wall time, allocation, and peak heap.  Each run gets a fresh JVM, like a real
+ * run, and the median of the iterations is kept.
+ * <p>
+ * The results are compared with a stored baseline, and the benchmark exits
+ * with a non-zero status if any phase has regressed by more than the
+ * threshold percentage.  Phases too small to measure reliably are not checked.
+ */
+public class PipelineBenchmark {
+	private static final String USAGE = """
+		Usage: PipelineBenchmark [options]
+
+		--sizes <list>       Comma-separated numbers of students (default 1000,10000)
+		--iterations <n>     Runs per size, of which the median is kept (default 3)
+		--threshold <pct>    Allowed regression per phase, in percent (default 20)
+		--baseline <file>    The stored baseline results
+		--results <file>     Where to write this run's results
+		--work-dir <dir>     Where to generate the data sets
+		--max-heap <size>    Maximum heap of each run, e.g. 4g (default 4g)
+		--update-baseline    Store this run's results as the new baseline""";
+
+	private static final String RUN_ONCE_OPTION = "--run-once";
+	private static final String PRISTINE_MASTER_REPORT = "master-report-pristine.xlsx";
+	private static final long SEED = 42;
+	// The settings that name the state a run leaves behind for the next one:
+	private static final List<String> RUN_STATE_SETTINGS = List.of(
+		"adjudication.log.file", "report.digest.file", "mail.outbox.dir");
+
+	private static final String WALL_TIME = "wallMillis";
+	private static final String ALLOCATED = "allocatedBytes";
+	private static final String PEAK_HEAP = "peakHeapBytes";
+	// Below these baseline values, run-to-run noise swamps any regression:
+	private static final Map<String, Double> NOISE_FLOORS = Map.of(
+		WALL_TIME, 50.0,
+		ALLOCATED, 16.0 * 1024 * 1024,
+		PEAK_HEAP, 64.0 * 1024 * 1024);
+
+	private final List<Integer> sizes;
+	private final int iterations;
+	private final double thresholdPercent;
+	private final File baselineFile;
+	private final File resultsFile;
+	private final File workDir;
+	private final String maxHeap;
+	private final boolean updateBaseline;
+
+	public static void main(String[] args) {
+		try {
+			if (args.length == 2 && RUN_ONCE_OPTION.equals(args[0])) {
+				runOnce(new File(args[1]));
+				// Stop any lingering mail threads:
+				System.exit(0);
+			}
+			var benchmark = new PipelineBenchmark(args);
+			System.exit(benchmark.run() ? 0 : 1);
+		} catch (CmdLineException ex) {
+			System.out.format("%n%1$s%n%n", ex.getMessage());
+			System.exit(2);
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+			System.exit(2);
+		}
+	}
+
+	private PipelineBenchmark(String[] args) throws CmdLineException {
+		Map<String, String> options = new TreeMap<>();
+		boolean updateBaselineArg = false;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--update-baseline")) {
+				updateBaselineArg = true;
+			} else if (args[i].startsWith("--") && i + 1 < args.length) {
+				options.put(args[i], args[++i]);
+			} else {
+				throw new CmdLineException("Unrecognized argument '%1$s'%n%n%2$s", args[i], USAGE);
+			}
+		}
+		try {
+			sizes = Stream.of(options.getOrDefault("--sizes", "1000,10000").split(","))
+				.map(String::strip)
+				.map(Integer::valueOf)
+				.toList();
+			iterations = Integer.parseInt(options.getOrDefault("--iterations", "3"));
+			thresholdPercent = Double.parseDouble(options.getOrDefault("--threshold", "20"));
+		} catch (NumberFormatException ex) {
+			throw new CmdLineException("%1$s%n%n%2$s", ex.getMessage(), USAGE);
+		}
+		baselineFile = new File(options.getOrDefault("--baseline", "pipeline-baseline.json"));
+		resultsFile = new File(options.getOrDefault("--results", "pipeline-results.json"));
+		workDir = new File(options.getOrDefault("--work-dir", "pipeline-benchmark"));
+		maxHeap = options.getOrDefault("--max-heap", "4g");
+		updateBaseline = updateBaselineArg;
+		if (iterations < 1) {
+			throw new CmdLineException("The number of iterations must be positive%n%n%1$s", USAGE);
+		}
+	}
+
+	/** Returns false if any phase regressed beyond the threshold. */
+	private boolean run() throws IOException, InterruptedException {
+		var results = new JsonObject();
+		try (var smtpServer = new SmtpStubServer()) {
+			for (int size : sizes) {
+				var datasetDir = prepareDataset(size, smtpServer);
+				int messagesBefore = smtpServer.getMessages();
+				List<JsonObject> runs = new ArrayList<>();
+				for (int i = 1; i <= iterations; ++i) {
+					System.out.format("Running %1$d students, iteration %2$d of %3$d%n",
+						size, i, iterations);
+					runs.add(runInChildJvm(datasetDir));
+				}
+				System.out.format("Sent %1$d emails per run%n",
+					(smtpServer.getMessages() - messagesBefore) / iterations);
+				results.add(Integer.toString(size), median(runs));
+			}
+		}
+
+		writeJson(results, resultsFile);
+		printResults(results);
+		if (updateBaseline) {
+			writeJson(results, baselineFile);
+			System.out.format("Stored the results as the new baseline in %1$s%n", baselineFile);
+			return true;
+		} else if (!baselineFile.isFile()) {
+			System.out.format("No baseline at %1$s.  Use --update-baseline to store one.%n",
+				baselineFile);
+			return true;
+		}
+		return checkForRegressions(results, readJson(baselineFile));
+	}
+
+	/*
+	 * Generates the data set, if it does not already exist, and directs its
+	 * email to the SMTP stand-in.
+	 */
+	private File prepareDataset(int size, SmtpStubServer smtpServer) throws IOException {
+		var datasetDir = new File(workDir, "students-%1$d".formatted(size));
+		var configFile = new File(datasetDir, Util.CONFIGURATION_RESOURCE);
+		if (!configFile.isFile()) {
+			var params = new SyntheticRosters.Parameters(size, Math.max(1, size / 60),
+				0.05, 0.05, 0.02, 0.03, SEED);
+			new RosterGenerator(params, List.of("B", "C"), datasetDir).run();
+			Files.copy(new File(datasetDir, RosterGenerator.MASTER_REPORT).toPath(),
+				new File(datasetDir, PRISTINE_MASTER_REPORT).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		var props = readConfiguration(datasetDir);
+		props.putAll(smtpServer.getMailProperties());
+		props.remove("mail.user");
+		props.setProperty("send.reports", "true");
+		try (Writer wtr = Files.newBufferedWriter(configFile.toPath(), Util.CHARSET)) {
+			props.store(wtr, "Synthetic data set, directed to a local SMTP stand-in");
+		}
+		return datasetDir;
+	}
+
+	private static Properties readConfiguration(File datasetDir) throws IOException {
+		var props = new Properties();
+		try (Reader rdr = Files.newBufferedReader(
+				new File(datasetDir, Util.CONFIGURATION_RESOURCE).toPath(), Util.CHARSET)) {
+			props.load(rdr);
+		}
+		return props;
+	}
+
+	/* Runs the pipeline once in a fresh JVM with the data set first on the class path */
+	private JsonObject runInChildJvm(File datasetDir) throws IOException, InterruptedException {
+		// Start from the generated state, so that every run does the same work:
+		Files.copy(new File(datasetDir, PRISTINE_MASTER_REPORT).toPath(),
+			new File(datasetDir, RosterGenerator.MASTER_REPORT).toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+		var runDir = new File(datasetDir, "run");
+		deleteRecursively(runDir.toPath());
+		var props = readConfiguration(datasetDir);
+		for (String setting : RUN_STATE_SETTINGS) {
+			var path = props.getProperty(setting);
+			if (path != null && !path.isBlank()) {
+				// A relative path is relative to the run's working directory:
+				deleteRecursively(runDir.toPath().resolve(path.strip()));
+			}
+		}
+		runDir.mkdirs();
+
+		var phaseFile = new File(runDir, "phases.json");
+		var logFile = new File(runDir, "pipeline.log");
+		var process = new ProcessBuilder(
+				Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+				"-Xmx" + maxHeap,
+				"-cp", datasetDir.getAbsolutePath() + File.pathSeparator
+					+ System.getProperty("java.class.path"),
+				PipelineBenchmark.class.getName(),
+				RUN_ONCE_OPTION, phaseFile.getAbsolutePath())
+			.directory(runDir)
+			.redirectErrorStream(true)
+			.redirectOutput(logFile)
+			.start();
+		if (process.waitFor() != 0 || !phaseFile.isFile()) {
+			throw new IllegalStateException("The pipeline run failed.  See %1$s"
+				.formatted(logFile));
+		}
+		return readJson(phaseFile);
+	}
+
+	private static void runOnce(File phaseFile) throws Exception {
+		var app = new App(new String[0]);
+		app.run();
+		var phases = new JsonObject();
+		for (var phase : app.getPhases().getPhases()) {
+			var json = new JsonObject();
+			json.addProperty(WALL_TIME, phase.wallTime().toNanos() / 1_000_000.0);
+			json.addProperty(ALLOCATED, phase.allocatedBytes());
+			json.addProperty(PEAK_HEAP, phase.peakHeapBytes());
+			phases.add(phase.name(), json);
+		}
+		writeJson(phases, phaseFile);
+	}
+
+	/* Takes the median of each measure of each phase across the runs */
+	private static JsonObject median(List<JsonObject> runs) {
+		var result = new JsonObject();
+		for (String phase : runs.get(0).keySet()) {
+			var json = new JsonObject();
+			for (String measure : List.of(WALL_TIME, ALLOCATED, PEAK_HEAP)) {
+				double[] values = runs.stream()
+					.mapToDouble(run -> run.getAsJsonObject(phase).get(measure).getAsDouble())
+					.sorted()
+					.toArray();
+				json.addProperty(measure, values[values.length / 2]);
+			}
+			result.add(phase, json);
+		}
+		return result;
+	}
+
+	private boolean checkForRegressions(JsonObject results, JsonObject baseline) {
+		List<String> regressions = new ArrayList<>();
+		for (String size : results.keySet()) {
+			if (!baseline.has(size)) {
+				continue;
+			}
+			var sizeResults = results.getAsJsonObject(size);
+			var sizeBaseline = baseline.getAsJsonObject(size);
+			for (String phase : sizeResults.keySet()) {
+				if (!sizeBaseline.has(phase)) {
+					continue;
+				}
+				for (var floor : NOISE_FLOORS.entrySet()) {
+					var measure = floor.getKey();
+					double current = sizeResults.getAsJsonObject(phase).get(measure).getAsDouble();
+					double base = sizeBaseline.getAsJsonObject(phase).get(measure).getAsDouble();
+					if (base >= floor.getValue()
+							&& current > base * (1.0 + thresholdPercent / 100.0)) {
+						regressions.add("%1$s students, %2$s, %3$s: %4$.0f vs. baseline %5$.0f (+%6$.1f%%)"
+							.formatted(size, phase, measure, current, base,
+								100.0 * (current - base) / base));
+					}
+				}
+			}
+		}
+		if (regressions.isEmpty()) {
+			System.out.format("No phase regressed by more than %1$.1f%%%n", thresholdPercent);
+			return true;
+		} else {
+			System.out.format("Regressions of more than %1$.1f%%:%n   %2$s%n", thresholdPercent,
+				String.join("%n   ".formatted(), regressions));
+			return false;
+		}
+	}
+
+	private static void printResults(JsonObject results) {
+		for (String size : results.keySet()) {
+			System.out.format("%n%1$s students:%n", size);
+			System.out.format("   %1$-22s %2$10s %3$12s %4$12s%n", "Phase", "Wall (ms)",
+				"Alloc (MB)", "Peak (MB)");
+			var sizeResults = results.getAsJsonObject(size);
+			for (String phase : sizeResults.keySet()) {
+				var json = sizeResults.getAsJsonObject(phase);
+				System.out.format("   %1$-22s %2$10.0f %3$12.1f %4$12.1f%n", phase,
+					json.get(WALL_TIME).getAsDouble(),
+					json.get(ALLOCATED).getAsDouble() / (1024 * 1024),
+					json.get(PEAK_HEAP).getAsDouble() / (1024 * 1024));
+			}
+		}
+	}
+
+	private static JsonObject readJson(File file) throws IOException {
+		try (Reader rdr = Files.newBufferedReader(file.toPath(), Util.CHARSET)) {
+			return JsonParser.parseReader(rdr).getAsJsonObject();
+		}
+	}
+
+	private static void writeJson(JsonElement json, File file) throws IOException {
+		var parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.exists()) {
+			parent.mkdirs();
+		}
+		try (Writer wtr = Files.newBufferedWriter(file.toPath(), Util.CHARSET)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(json, wtr);
+		}
+	}
+
+	private static void deleteRecursively(Path path) throws IOException {
+		if (Files.exists(path)) {
+			try (Stream<Path> stream = Files.walk(path)) {
+				for (Path p : stream.sorted(Comparator.reverseOrder()).toList()) {
+					Files.delete(p);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package org.virginiaso.roster_diff;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * The durable record of the manual SAME and DIFFERENT verdicts, and their
+ * source of truth in place of the master report.  Each change is appended to
+ * a log, which is replayed at startup into a hash index of (Scilympiad
+ * student, Portal student) pairs, so that loading the verdicts costs a log
+ * replay rather than a parse of the whole workbook.
+ *
+ * Verdicts edited in the master report are imported incrementally.  The
+ * workbook is parsed only if it has changed since it was last imported or
+ * written, and then only the rows whose fingerprint (the pair and its
+ * verdict) differs from the index are logged.  A verdict cleared in the
+ * workbook is logged as a removal, but a verdict whose row is simply absent
+ * (say, because the student has left the roster) is kept, so that the
+ * history survives the regeneration of the report.  Once superseded entries
+ * outnumber the live ones, the log is compacted to one entry per verdict.
+ */
+public class AdjudicationStore {
+	public static record Pair(Student sStudent, Student pStudent) {}
+
+	private static record Entry(Verdict verdict, Instant recorded) {}
+
+	static final String REPLAYED_COUNTER = "adjudications.log.replayed";
+	static final String IMPORTED_COUNTER = "adjudications.rows.imported";
+	static final String COMPACTED_COUNTER = "adjudications.log.compactions";
+
+	private static final String SET_OP = "SET";
+	private static final String CLEAR_OP = "CLEAR";
+	private static final String WORKBOOK_OP = "WORKBOOK";
+	private static final String FIELD_SEPARATOR = "\t";
+	private static final int NUM_HEADER_FIELDS = 3;
+	private static final int NUM_STUDENT_FIELDS = 5;
+	private static final int MIN_LINES_TO_COMPACT = 1_000;
+
+	private static final Comparator<Pair> PAIR_ORDER = Comparator
+		.comparing(Pair::sStudent)
+		.thenComparing(Pair::pStudent);
+
+	private final Path logFile;
+	private final Map<Pair, Entry> verdicts;
+	// The modification time and size of the workbook when last imported or written:
+	private String workbookStamp;
+	private int numLogLines;
+
+	public AdjudicationStore(File logFile) {
+		this.logFile = logFile.toPath();
+		verdicts = new HashMap<>();
+		workbookStamp = "";
+		numLogLines = 0;
+		try {
+			boolean isTailTorn = replay();
+			if (isTailTorn || isCompactionDue()) {
+				compact();
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** Returns the manual matches, ordered by Scilympiad and then Portal student. */
+	public synchronized List<Match> getMatches() {
+		return verdicts.entrySet().stream()
+			.sorted(Map.Entry.comparingByKey(PAIR_ORDER))
+			.map(entry -> new Match(entry.getKey().sStudent(), entry.getKey().pStudent(),
+				entry.getValue().verdict()))
+			.toList();
+	}
+
+	/** Returns the verdict on a pair of students, or null if there is none. */
+	public synchronized Verdict getVerdict(Student sStudent, Student pStudent) {
+		var entry = verdicts.get(new Pair(sStudent, pStudent));
+		return (entry == null) ? null : entry.verdict();
+	}
+
+	public synchronized int size() {
+		return verdicts.size();
+	}
+
+	/**
+	 * Imports the verdicts edited in the master report, unless it is unchanged
+	 * since it was last imported or written.
+	 *
+	 * @return The number of verdicts that were set, changed, or cleared
+	 */
+	public synchronized int importWorkbook(File masterReportFile)
+			throws IOException, ParseException {
+		if (!masterReportFile.isFile()) {
+			return 0;
+		}
+		var stamp = computeStamp(masterReportFile);
+		return stamp.equals(workbookStamp)
+			? 0
+			: importRows(Match.parseRows(masterReportFile), stamp);
+	}
+
+	/**
+	 * Records that this program has just written the master report, so that
+	 * it is not parsed again until someone edits it.
+	 */
+	public synchronized void recordWorkbook(File masterReportFile) throws IOException {
+		if (masterReportFile.isFile()) {
+			var stamp = computeStamp(masterReportFile);
+			if (!stamp.equals(workbookStamp)) {
+				append(List.of(formatWorkbookLine(Instant.now(), stamp)));
+				workbookStamp = stamp;
+			}
+		}
+	}
+
+	/*
+	 * Logs each row whose verdict differs from the index.  A row with a null
+	 * verdict clears the pair's verdict, if it has one.
+	 */
+	synchronized int importRows(List<Match> rows, String stamp) throws IOException {
+		var now = Instant.now();
+		List<String> lines = new ArrayList<>();
+		for (Match row : rows) {
+			if (row.getSStudent() == null) {
+				continue;	// a Portal row before any Scilympiad row
+			}
+			var pair = new Pair(row.getSStudent(), row.getPStudent());
+			var current = verdicts.get(pair);
+			if (Objects.equals((current == null) ? null : current.verdict(), row.getVerdict())) {
+				continue;	// the row's fingerprint is already in the index
+			} else if (row.getVerdict() == null) {
+				verdicts.remove(pair);
+				lines.add(formatPairLine(now, CLEAR_OP, "", pair));
+			} else {
+				verdicts.put(pair, new Entry(row.getVerdict(), now));
+				lines.add(formatPairLine(now, SET_OP, row.getVerdict().name(), pair));
+			}
+		}
+		int numChanges = lines.size();
+		lines.add(formatWorkbookLine(now, stamp));
+		append(lines);
+		workbookStamp = stamp;
+		Metrics.get().add(IMPORTED_COUNTER, numChanges);
+
+		if (isCompactionDue()) {
+			compact();
+		}
+		return numChanges;
+	}
+
+	/*
+	 * Returns true if the log ends in a line torn by a crash.  That line is not
+	 * replayed, because a line cut short in its last field (the grade) would
+	 * still parse, as a verdict on the wrong pair.
+	 */
+	private boolean replay() throws IOException {
+		if (!Files.isRegularFile(logFile)) {
+			return false;
+		}
+		boolean isTailTorn = !endsWithNewline();
+		try (Stream<String> lines = Files.lines(logFile, Util.CHARSET)) {
+			var iter = lines.iterator();
+			while (iter.hasNext()) {
+				var line = iter.next();
+				if (iter.hasNext() || !isTailTorn) {
+					replayLine(line);
+				}
+			}
+		}
+		Metrics.get().add(REPLAYED_COUNTER, numLogLines);
+		return isTailTorn;
+	}
+
+	private void replayLine(String line) {
+		++numLogLines;
+		var fields = line.split(FIELD_SEPARATOR, -1);
+		try {
+			if (fields.length == NUM_HEADER_FIELDS && WORKBOOK_OP.equals(fields[1])) {
+				Instant.parse(fields[0]);
+				workbookStamp = fields[2];
+			} else if (fields.length == NUM_HEADER_FIELDS + 2 * NUM_STUDENT_FIELDS) {
+				var recorded = Instant.parse(fields[0]);
+				var pair = new Pair(parseStudent(fields, NUM_HEADER_FIELDS),
+					parseStudent(fields, NUM_HEADER_FIELDS + NUM_STUDENT_FIELDS));
+				if (SET_OP.equals(fields[1])) {
+					verdicts.put(pair, new Entry(Verdict.valueOf(fields[2]), recorded));
+				} else if (CLEAR_OP.equals(fields[1])) {
+					verdicts.remove(pair);
+				}
+			}
+		} catch (DateTimeParseException | IllegalArgumentException ex) {
+			// Skip a line torn by a crash
+		}
+	}
+
+	private boolean endsWithNewline() throws IOException {
+		try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+			if (channel.size() == 0) {
+				return true;
+			}
+			var lastByte = ByteBuffer.allocate(1);
+			channel.read(lastByte, channel.size() - 1);
+			return lastByte.get(0) == '\n';
+		}
+	}
+
+	private boolean isCompactionDue() {
+		return numLogLines >= MIN_LINES_TO_COMPACT && numLogLines > 2 * (verdicts.size() + 1);
+	}
+
+	/* Rewrites the log with one entry per verdict, and replaces the old log atomically */
+	private void compact() throws IOException {
+		List<String> lines = new ArrayList<>();
+		verdicts.entrySet().stream()
+			.sorted(Map.Entry.comparingByKey(PAIR_ORDER))
+			.forEach(entry -> lines.add(formatPairLine(entry.getValue().recorded(), SET_OP,
+				entry.getValue().verdict().name(), entry.getKey())));
+		if (!workbookStamp.isEmpty()) {
+			lines.add(formatWorkbookLine(Instant.now(), workbookStamp));
+		}
+
+		var dir = logFile.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path tmpFile = Files.createTempFile(dir, Util.getStem(logFile.getFileName().toString()),
+			".tmp");
+		write(tmpFile, lines, StandardOpenOption.TRUNCATE_EXISTING);
+		Files.move(tmpFile, logFile, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		numLogLines = lines.size();
+		Metrics.get().increment(COMPACTED_COUNTER);
+	}
+
+	/* Appends to the log and forces it to disk */
+	private void append(List<String> lines) throws IOException {
+		var dir = logFile.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		write(logFile, lines, StandardOpenOption.APPEND);
+		numLogLines += lines.size();
+	}
+
+	private static void write(Path file, List<String> lines, StandardOpenOption mode)
+			throws IOException {
+		try (
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, mode);
+			BufferedWriter wtr = new BufferedWriter(Channels.newWriter(channel, Util.CHARSET));
+		) {
+			for (String line : lines) {
+				wtr.write(line);
+				wtr.newLine();
+			}
+			wtr.flush();
+			channel.force(false);
+		}
+	}
+
+	private static String formatWorkbookLine(Instant time, String stamp) {
+		return String.join(FIELD_SEPARATOR, time.toString(), WORKBOOK_OP, stamp);
+	}
+
+	private static String formatPairLine(Instant time, String op, String verdict, Pair pair) {
+		return String.join(FIELD_SEPARATOR, time.toString(), op, verdict,
+			formatStudent(pair.sStudent()), formatStudent(pair.pStudent()));
+	}
+
+	private static String formatStudent(Student student) {
+		return String.join(FIELD_SEPARATOR, student.school(), student.lastName(),
+			student.firstName(), student.nickName(), Integer.toString(student.grade()));
+	}
+
+	private static Student parseStudent(String[] fields, int start) {
+		return new Student(fields[start + 2], fields[start + 1], fields[start + 3],
+			fields[start], Integer.parseInt(fields[start + 4]));
+	}
+
+	private static String computeStamp(File file) throws IOException {
+		return "%1$s/%2$d".formatted(Files.getLastModifiedTime(file.toPath()), file.length());
+	}
+}
@@ -2,53 +2,437 @@ package org.virginiaso.roster_diff;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+import org.virginiaso.roster_diff.InputWatcher.Input;
+
 public class App {
-	private final File masterReportFile;
-	private final boolean sendReports;
+	private static final String USAGE = """
+		Usage: App [--watch] [--profile] [--stream]
+
+		--watch    After the first diff, keep running, and re-diff whenever the
+		           Scilympiad rosters, the Portal reports, or the master reports
+		           change
+		--profile  Record each diff with the JDK Flight Recorder, and write the
+		           recording (profile.jfr) next to the reports
+		--stream   Compare the rosters school by school, and report and email
+		           each school as soon as it is compared, instead of after
+		           the whole comparison and the master report
+
+		To compare several tournament sites in one run, list them in the
+		scilympiad.sites setting.  The Portal roster is then parsed and indexed
+		once, and each site gets its own master report.""";
+
+	// The names of the phases of a run, as recorded by the PhaseRecorder:
+	static final String READ_PORTAL_PHASE = "read-portal";
+	static final String PARSE_SCILYMPIAD_PHASE = "parse-scilympiad";
+	static final String PARSE_MASTER_REPORT_PHASE = "parse-master-report";
+	static final String FIND_DUPLICATES_PHASE = "find-duplicates";
+	static final String COMPARE_PHASE = "compare";
+	static final String WRITE_MASTER_REPORT_PHASE = "write-master-report";
+	static final String SCHOOL_REPORTS_PHASE = "school-reports";
+	static final String STREAM_SCHOOLS_PHASE = "stream-schools";
+	static final String METRICS_FILE_NAME = "metrics.json";
+
+	private static final int EXIT_SUCCESS = 0;
+	private static final int EXIT_FAILURE = 1;
+	private static final int EXIT_USAGE = 2;
+
+	private final boolean watch;
+	private final boolean profile;
+	private final boolean stream;
+	private PhaseRecorder phases;
+	private ProfileRecording recording;
+	private List<File> reportDirs;
+
+	// The parsed inputs, kept between diffs in watch mode:
+	private Map<String, List<Coach>> schoolToCoachsMap;
+	private List<Student> pStudents;
+	private List<DuplicateFinder.Cluster> pDuplicates;
+	private RosterIndex pIndex;
+	private List<Site> sites;
+
+	/* A Scilympiad site, with its own roster, master report, and verdicts */
+	private static class Site {
+		public final Configuration.ScilympiadSite settings;
+		public final File masterReportFile;
+		public final File digestFile;
+		public final File adjudicationLogFile;
+		private AdjudicationStore adjudications;
+		public List<Student> sStudents;
+		public List<DuplicateFinder.Cluster> duplicates;
+		public List<Match> matches;
+
+		public Site(Configuration config, Configuration.ScilympiadSite settings) {
+			this.settings = settings;
+			masterReportFile = config.getMasterReportFile(settings);
+			digestFile = config.getDigestFile(settings);
+			adjudicationLogFile = config.getAdjudicationLogFile(settings);
+			sStudents = List.of();
+			duplicates = List.of();
+			matches = List.of();
+		}
+
+		/* Opened on first use, so that its log replay is measured with the run */
+		public AdjudicationStore getAdjudications() {
+			if (adjudications == null) {
+				adjudications = new AdjudicationStore(adjudicationLogFile);
+			}
+			return adjudications;
+		}
+	}
 
 	public static void main(String[] args) {
+		int exitCode;
 		try {
 			App app = new App(args);
-			app.run();
+			exitCode = app.run() ? EXIT_SUCCESS : EXIT_FAILURE;
 		} catch (CmdLineException ex) {
 			if (ex.getMessage() != null && !ex.getMessage().isBlank()) {
 				System.out.format("%n%1$s%n%n", ex.getMessage());
 			}
+			exitCode = EXIT_USAGE;
 		} catch (Throwable ex) {
 			ex.printStackTrace();
+			exitCode = EXIT_FAILURE;
 		}
+		System.exit(exitCode);
 	}
 
-	private App(String[] args) throws CmdLineException {
-		Properties props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		masterReportFile = Util.parseFileArgument(props, "master.report.file");
-		sendReports = Boolean.parseBoolean(props.getProperty("send.reports", "false"));
+	App(String[] args) throws CmdLineException {
+		boolean watchArg = false;
+		boolean profileArg = false;
+		boolean streamArg = false;
+		for (String arg : args) {
+			if (arg.equals("--watch")) {
+				watchArg = true;
+			} else if (arg.equals("--profile")) {
+				profileArg = true;
+			} else if (arg.equals("--stream")) {
+				streamArg = true;
+			} else {
+				throw new CmdLineException("Unrecognized argument '%1$s'%n%n%2$s", arg, USAGE);
+			}
+		}
+		watch = watchArg;
+		profile = profileArg;
+		stream = streamArg;
+
+		try {
+			Configuration.get();
+		} catch (IllegalArgumentException ex) {
+			throw new CmdLineException(ex, "%1$s", ex.getMessage());
+		}
 	}
 
-	private void run() throws IOException, ParseException {
-		Set<Coach> coaches = ConsolidatedCoachRetriever.getConsolidatedCoachList();
-		Map<String, List<Coach>> schoolToCoachsMap = coaches.stream().collect(
-			Collectors.groupingBy(Coach::school, TreeMap::new, Collectors.toList()));
-		List<Match> matches = Match.parse(masterReportFile);
-		List<Student> pStudents = StudentRetrieverFactory.create().readLatestReportFile();
-		List<Student> sStudents = ScilympiadParser.readLatestRosterFile();
+	/**
+	 * Diffs the rosters and reports, and then, if watching, repeats as the
+	 * inputs change until interrupted.
+	 *
+	 * @return true if every school's report succeeded and no email was left in
+	 *         the outbox
+	 */
+	boolean run() throws IOException, ParseException, InterruptedException {
+		sites = createSites(Configuration.get());
+		try {
+			startMeasurement();
+			readInputs(EnumSet.allOf(Input.class));
+			boolean succeeded = diffAndReport();
+			if (watch) {
+				watchInputs();
+			}
+			return succeeded;
+		} finally {
+			if (recording != null) {
+				recording.close();
+			}
+		}
+	}
+
+	/* Starts the phases and metrics afresh for the next diff */
+	private void startMeasurement() {
+		phases = new PhaseRecorder();
+		Metrics.get().reset();
+		Progress.get().reset();
+		reportDirs = new ArrayList<>();
+		if (profile) {
+			if (recording != null) {
+				recording.close();
+			}
+			recording = new ProfileRecording();
+		}
+	}
 
-		checkForMissingSchoolsInCoachesFile(schoolToCoachsMap.keySet(), pStudents, sStudents);
+	private static List<Site> createSites(Configuration config) {
+		return config.getScilympiadSites().stream()
+			.map(settings -> new Site(config, settings))
+			.collect(Collectors.toUnmodifiableList());
+	}
 
-		System.out.format("Found %1$d portal students and %2$d Scilympiad students%n",
-			pStudents.size(), sStudents.size());
+	private void watchInputs() throws IOException, InterruptedException {
+		System.out.format("%nWatching for new input files.  Press Ctrl-C to stop.%n");
+		for (;;) {
+			// A reloaded configuration may move the inputs, so watch them afresh:
+			watchInputsUntilReload();
+		}
+	}
+
+	private void watchInputsUntilReload() throws IOException, InterruptedException {
+		var config = Configuration.get();
+		try (var watcher = new InputWatcher(
+				sites.stream().map(site -> site.settings.reportDir()).toList(),
+				config.getPortalReportDir(),
+				sites.stream().map(site -> site.masterReportFile).toList(),
+				Configuration.getFile(),
+				config.getWatchQuietPeriod())) {
+			watcher.noteOwnMasterReportWrites();
+			for (;;) {
+				Set<Input> changes = watcher.awaitChanges();
+				boolean isReloaded = false;
+				try {
+					if (Configuration.reloadIfChanged()) {
+						System.out.format("Reloaded the configuration%n");
+						sites = createSites(Configuration.get());
+						changes = EnumSet.allOf(Input.class);
+						isReloaded = true;
+					} else {
+						changes.remove(Input.CONFIGURATION);
+						if (changes.isEmpty()) {
+							continue;
+						}
+					}
+					System.out.format("%nChanged inputs: %1$s%n", changes);
+					startMeasurement();
+					readInputs(changes);
+					if (!diffAndReport()) {
+						System.out.format("FAILED to report some schools.  The next change "
+							+ "will trigger another attempt.%n");
+					}
+					watcher.noteOwnMasterReportWrites();
+				} catch (IOException | RuntimeException ex) {
+					// Typically a file that is still being written.  Its next event
+					// will trigger another attempt.
+					System.out.format("FAILED to update the reports (%1$s)%n", ex.getMessage());
+				}
+				if (isReloaded) {
+					return;
+				}
+			}
+		}
+	}
+
+	/* Re-parses the given inputs, keeping the previously parsed values of the rest */
+	private void readInputs(Set<Input> inputs) throws IOException, ParseException {
+		var duplicateFinder = Configuration.get().isFindDuplicates()
+			? new DuplicateFinder(new WeightAvgDistanceFunction(),
+				DifferenceEngine.DISTANCE_THRESHOLD)
+			: null;
+		if (inputs.contains(Input.PORTAL_REPORTS)) {
+			phases.record(READ_PORTAL_PHASE, () -> {
+				Set<Coach> coaches = ConsolidatedCoachRetriever.getConsolidatedCoachList();
+				schoolToCoachsMap = coaches.stream().collect(
+					Collectors.groupingBy(Coach::school, TreeMap::new, Collectors.toList()));
+				pStudents = StudentRetrieverFactory.create().readLatestReportFile();
+				// Index the Portal side once, and share it among the sites:
+				pIndex = new RosterIndex(pStudents, new WeightAvgDistanceFunction());
+				return null;
+			});
+			pDuplicates = findDuplicates(duplicateFinder, pStudents);
+		}
+		for (Site site : sites) {
+			if (inputs.contains(Input.SCILYMPIAD_ROSTERS)) {
+				site.sStudents = phases.record(PARSE_SCILYMPIAD_PHASE,
+					() -> ScilympiadParser.readLatestRosterFile(site.settings));
+				site.duplicates = findDuplicates(duplicateFinder, site.sStudents);
+			}
+			if (inputs.contains(Input.MASTER_REPORT)) {
+				site.matches = phases.record(PARSE_MASTER_REPORT_PHASE,
+					() -> importAdjudications(site));
+			}
+		}
+	}
+
+	/* Imports any verdicts edited in the master report, and returns them all */
+	private static List<Match> importAdjudications(Site site)
+			throws IOException, ParseException {
+		int numChanged = site.getAdjudications().importWorkbook(site.masterReportFile);
+		if (numChanged > 0) {
+			System.out.format("Imported %1$d changed verdicts from %2$s%n", numChanged,
+				site.masterReportFile.getName());
+		}
+		return site.getAdjudications().getMatches();
+	}
 
-		DifferenceEngine engine = DifferenceEngine.compare(matches, pStudents, sStudents,
-			new WeightAvgDistanceFunction());
+	private List<DuplicateFinder.Cluster> findDuplicates(DuplicateFinder finder,
+			List<Student> roster) throws IOException {
+		return (finder == null)
+			? List.of()
+			: phases.record(FIND_DUPLICATES_PHASE, () -> finder.find(roster));
+	}
+
+	/* Returns true if every site's reports succeeded */
+	private boolean diffAndReport() throws IOException {
+		var config = Configuration.get();
+		boolean succeeded = true;
+		List<DifferenceEngine> engines = stream
+			? null
+			: phases.record(COMPARE_PHASE, this::compareSites);
+		for (int i = 0; i < sites.size(); ++i) {
+			var site = sites.get(i);
+			if (config.isMultiSite()) {
+				System.out.format("%n========== Site %1$s ==========%n", site.settings.name());
+			}
+			succeeded &= stream
+				? streamReport(config, site)
+				: report(config, site, engines.get(i));
+		}
+		System.out.println();
+		phases.printSummary();
+		writeMetrics();
+		return succeeded;
+	}
+
+	/*
+	 * Writes the run's metrics, and the flight recording if profiling, into
+	 * each of its report directories
+	 */
+	private void writeMetrics() throws IOException {
+		var json = Metrics.get().toJson();
+		json.add("phases", phases.toJson());
+		for (File reportDir : reportDirs) {
+			if (reportDir.isDirectory()) {
+				Metrics.writeJson(json, new File(reportDir, METRICS_FILE_NAME));
+				if (recording != null) {
+					recording.dumpInto(reportDir);
+				}
+			}
+		}
+	}
+
+	/* Compares each site with the Portal concurrently, since they share one index */
+	private List<DifferenceEngine> compareSites() {
+		ExecutorService pool = Executors.newFixedThreadPool(
+			Math.min(sites.size(), Runtime.getRuntime().availableProcessors()),
+			PhaseRecorder.threadFactory("compare"));
+		try {
+			List<CompletableFuture<DifferenceEngine>> futures = sites.stream()
+				.map(site -> CompletableFuture.supplyAsync(
+					() -> DifferenceEngine.compare(site.matches, pIndex, site.sStudents,
+						DifferenceEngine.Mode.HASHED), pool))
+				.toList();
+			return futures.stream()
+				.map(CompletableFuture::join)
+				.toList();
+		} finally {
+			pool.shutdown();
+			Progress.get().endStage();
+		}
+	}
+
+	private boolean report(Configuration config, Site site, DifferenceEngine engine)
+			throws IOException {
+		checkForMissingSchoolsInCoachesFile(schoolToCoachsMap.keySet(), pStudents,
+			site.sStudents);
+		printCounts(config, site, engine);
+
+		var reportTimer = Metrics.get().startTimer("report.build");
+		var reportDir = getSiteReportDir(config, site);
+		reportDirs.add(reportDir);
+		ReportBuilder rb = new ReportBuilder(engine, site.masterReportFile, reportDir,
+			pDuplicates, site.duplicates);
+		phases.record(WRITE_MASTER_REPORT_PHASE, () -> {
+			rb.createMasterReport();
+			site.getAdjudications().recordWorkbook(site.masterReportFile);
+			return null;
+		});
+
+		boolean succeeded = phases.record(SCHOOL_REPORTS_PHASE, () ->
+			new SchoolReportStage(rb, createDigestStore(config, site), config.getNumSendThreads())
+				.run(schoolToCoachsMap, config.isSendReports()));
+		reportTimer.stopAndReport("Built reports");
+		return succeeded;
+	}
+
+	/*
+	 * Compares each school's partition of the rosters concurrently, and reports
+	 * (and emails) each school as soon as its partition is compared.  The
+	 * partitions are then merged for the statewide master report.
+	 */
+	private boolean streamReport(Configuration config, Site site) throws IOException {
+		checkForMissingSchoolsInCoachesFile(schoolToCoachsMap.keySet(), pStudents,
+			site.sStudents);
+
+		var reportTimer = Metrics.get().startTimer("report.build");
+		var reportDir = getSiteReportDir(config, site);
+		reportDirs.add(reportDir);
+		ReportBuilder rb = ReportBuilder.forStreaming(site.masterReportFile, reportDir,
+			pDuplicates, site.duplicates);
+		var distanceFunction = pIndex.getDistanceFunction();
+		var partitions = new RosterPartitioner(distanceFunction).split(site.matches,
+			pIndex.getStudents(), site.sStudents);
+		var schoolsSucceeded = new AtomicBoolean();
+		DifferenceEngine engine = phases.record(STREAM_SCHOOLS_PHASE, () -> {
+			ExecutorService pool = Executors.newFixedThreadPool(
+				Runtime.getRuntime().availableProcessors(),
+				PhaseRecorder.threadFactory("compare"));
+			var stage = new SchoolReportStage(rb, createDigestStore(config, site),
+				config.getNumSendThreads());
+			try (var run = stage.openStreamedRun(schoolToCoachsMap, config.isSendReports())) {
+				List<CompletableFuture<DifferenceEngine>> futures = partitions.stream()
+					.map(partition -> CompletableFuture.supplyAsync(
+						() -> DifferenceEngine.compare(partition, distanceFunction), pool))
+					.map(future -> future.thenApply(partitionEngine -> {
+						run.submit(partitionEngine);
+						return partitionEngine;
+					}))
+					.toList();
+				var partitionEngines = futures.stream()
+					.map(CompletableFuture::join)
+					.toList();
+				schoolsSucceeded.set(run.finish());
+				return DifferenceEngine.merge(partitionEngines);
+			} finally {
+				pool.shutdown();
+			}
+		});
+		printCounts(config, site, engine);
+
+		phases.record(WRITE_MASTER_REPORT_PHASE, () -> {
+			rb.createMasterReport(engine);
+			site.getAdjudications().recordWorkbook(site.masterReportFile);
+			return null;
+		});
+		reportTimer.stopAndReport("Built reports");
+		return schoolsSucceeded.get();
+	}
+
+	private static SchoolDigestStore createDigestStore(Configuration config, Site site) {
+		return config.isSendReports()
+			? new SchoolDigestStore(site.digestFile, config.getReminderInterval())
+			: null;
+	}
+
+	private static File getSiteReportDir(Configuration config, Site site) {
+		return config.isMultiSite()
+			? getReportDir("-" + site.settings.name())
+			: getReportDir("");
+	}
+
+	private void printCounts(Configuration config, Site site, DifferenceEngine engine) {
+		System.out.format("Found %1$d portal students and %2$d Scilympiad students%n",
+			pStudents.size(), site.sStudents.size());
 
 		//System.out.print(engine.formatDistanceHistogram());
 		EnumMap<Verdict, Long> verdictCounts = engine.getMatches().stream()
@@ -66,14 +450,10 @@ public class App {
 			engine.getPStudentsNotFoundInS().size());
 		System.out.format("Scilympiad students not in the Portal: %1$3d%n",
 			engine.getSStudentsNotFoundInP().size());
-
-		Stopwatch reportTimer = new Stopwatch();
-		ReportBuilder rb = new ReportBuilder(engine, masterReportFile, getReportDir());
-		rb.createReport(null, null, false);
-
-		schoolToCoachsMap.entrySet().stream().forEach(
-			schoolEntry -> rb.createReport(schoolEntry.getKey(), schoolEntry.getValue(), sendReports));
-		reportTimer.stopAndReport("Built reports");
+		if (config.isFindDuplicates()) {
+			System.out.format("Possible Portal duplicates:     %1$3d%n", pDuplicates.size());
+			System.out.format("Possible Scilympiad duplicates: %1$3d%n", site.duplicates.size());
+		}
 	}
 
 	private void checkForMissingSchoolsInCoachesFile(Set<String> schools,
@@ -95,9 +475,14 @@ public class App {
 		}
 	}
 
-	private static File getReportDir() {
-		File reportDir = new File("reports-%1$TF_%1$TT"
-			.formatted(System.currentTimeMillis())
+	/** Returns the phases of the most recent diff. */
+	PhaseRecorder getPhases() {
+		return phases;
+	}
+
+	private static File getReportDir(String siteSuffix) {
+		File reportDir = new File("reports-%1$TF_%1$TT%2$s"
+			.formatted(System.currentTimeMillis(), siteSuffix)
 			.replace(':', '-'));
 		if (reportDir.exists()) {
 			throw new IllegalStateException("Report directory '%1$s' already exists"
@@ -67,11 +67,20 @@ public class CoachRetrieverFactory {
 	private CoachRetrieverFactory() {}	// prevent instantiation
 
 	public static PortalRetriever<Coach> create() {
+		return create(Configuration.get());
+	}
+
+	static PortalRetriever<Coach> create(Configuration config) {
+		return create(config, new PortalRequestScheduler(config));
+	}
+
+	/** Creates a retriever that shares the scheduler of a retrieval run. */
+	static PortalRetriever<Coach> create(Configuration config, PortalRequestScheduler scheduler) {
 		Gson gson = new GsonBuilder()
 			.setPrettyPrinting()
 			.registerTypeAdapter(Coach.class, new CoachSerializer())
 			.create();
-		return new PortalRetriever<Coach>(gson, "coach",
+		return new PortalRetriever<Coach>(config, scheduler, gson, "coach",
 			new TypeToken<ReportResponse<Coach>>(){}.getType());
 	}
 }
@@ -0,0 +1,481 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The application settings from configuration.properties (with System
+ * properties as defaults), parsed and validated once.  Every setting is
+ * checked when the configuration is loaded, and all problems are reported
+ * together, so that a bad setting stops the run before any work is done.
+ * Instances are immutable; {@link #reloadIfChanged()} replaces the shared
+ * instance when the configuration file has been edited.
+ *
+ * The settings are read from the file named by the roster.diff.config system
+ * property, or else from configuration.properties in the working directory.
+ * Only without either is the copy on the classpath used, and that copy
+ * cannot be reloaded, because under Gradle it is a build output rather than
+ * the file that is edited.
+ */
+public final class Configuration {
+	public static record PortalView(String scene, String view) {}
+
+	/** A Scilympiad tournament site, whose rosters are compared with the Portal. */
+	public static record ScilympiadSite(String name, File reportDir, List<String> suffixes) {}
+
+	/** The system property that names the configuration file. */
+	public static final String FILE_PROPERTY = "roster.diff.config";
+
+	static final List<String> PORTAL_REPORT_NAMES = List.of("roster", "coach");
+	private static final String DEFAULT_API_URL = "https://api.knack.com/v1";
+
+	private static Configuration current = null;
+
+	private final Properties props;
+	private final FileTime sourceLastModified;
+
+	private final File masterReportFile;
+	private final File adjudicationLogFile;
+	private final boolean sendReports;
+	private final boolean findDuplicates;
+	private final File digestFile;
+	private final Duration reminderInterval;
+	private final Duration watchQuietPeriod;
+	private final String lookupServerHost;
+	private final int lookupServerPort;
+	private final int lookupMaxResults;
+
+	private final String mailFrom;
+	private final String mailUser;
+	private final String mailPassword;
+	private final int numSendThreads;
+	private final int maxMessagesPerConnection;
+	private final File outboxDir;
+	private final Duration outboxResendWindow;
+
+	private final String portalApiUrl;
+	private final String portalApplicationName;
+	private final File portalReportDir;
+	private final String portalUser;
+	private final String portalPassword;
+	private final String portalApplicationId;
+	private final Map<String, PortalView> portalViews;
+	private final String permissionUrl;
+	private final File portalTokenFile;
+	private final Duration portalTokenLifetime;
+	private final int portalRetryMaxAttempts;
+	private final Duration portalRetryBaseDelay;
+	private final Duration portalRetryMaxDelay;
+	private final int portalRequestBudget;
+
+	private final List<ScilympiadSite> scilympiadSites;
+
+	/** Returns the shared configuration, loading it on first use. */
+	public static synchronized Configuration get() {
+		if (current == null) {
+			current = load(new Properties());
+		}
+		return current;
+	}
+
+	/**
+	 * Reloads the shared configuration if its file has changed since it was
+	 * loaded.  If the edited file is invalid, the exception propagates and
+	 * the previous configuration stays in effect.
+	 *
+	 * @return true if the configuration was reloaded
+	 */
+	public static synchronized boolean reloadIfChanged() {
+		var previous = get();
+		var lastModified = getLastModified(getFile());
+		if (lastModified == null || lastModified.equals(previous.sourceLastModified)) {
+			return false;
+		}
+		current = load(new Properties());
+		return true;
+	}
+
+	/**
+	 * Loads the configuration file with the given settings layered on top, for
+	 * tests and tools that redirect part of the configuration.
+	 */
+	public static Configuration load(Properties overrides) {
+		var file = getFile();
+		var lastModified = getLastModified(file);
+		var props = (file == null)
+			? Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE)
+			: Util.loadPropertiesFromFile(file);
+		props.putAll(overrides);
+		return new Configuration(props, lastModified);
+	}
+
+	private Configuration(Properties props, FileTime sourceLastModified) {
+		this.props = props;
+		this.sourceLastModified = sourceLastModified;
+		List<String> errors = new ArrayList<>();
+		var parser = new Parser(props, errors);
+
+		masterReportFile = parser.getFile("master.report.file");
+		adjudicationLogFile = parser.getFile("adjudication.log.file", "adjudications.log");
+		sendReports = parser.getBoolean("send.reports", false);
+		findDuplicates = parser.getBoolean("find.duplicates", false);
+		digestFile = parser.getFile("report.digest.file", "report-digests.csv");
+		reminderInterval = Duration.ofDays(parser.getPositiveInt("report.reminder.days", 3));
+		watchQuietPeriod = Duration.ofMillis(parser.getPositiveInt("watch.quiet.period.ms", 2_000));
+		lookupServerHost = parser.getString("lookup.server.host", "localhost");
+		lookupServerPort = parser.getPositiveInt("lookup.server.port", 8080);
+		lookupMaxResults = parser.getPositiveInt("lookup.max.results", 5);
+
+		mailFrom = parser.getString("mail.from");
+		mailUser = parser.getOptionalString("mail.user");
+		mailPassword = parser.getOptionalString("mail.password");
+		numSendThreads = parser.getPositiveInt("mail.send.threads", 4);
+		maxMessagesPerConnection = parser.getPositiveInt("mail.pool.max.messages.per.connection", 50);
+		outboxDir = parser.getFile("mail.outbox.dir", "outbox");
+		outboxResendWindow = Duration.ofHours(parser.getPositiveInt("mail.outbox.resend.hours", 20));
+
+		portalApiUrl = stripTrailingSlash(parser.getString("portal.api.url", DEFAULT_API_URL));
+		portalApplicationName = parser.getString("portal.application.name");
+		portalReportDir = parser.getFile("portal.report.dir");
+		portalUser = parser.getString("portal.user");
+		portalPassword = parser.getOptionalString("portal.password");
+		portalApplicationId = parser.getString(
+			"portal.%1$s.application.id".formatted(portalApplicationName));
+		portalViews = PORTAL_REPORT_NAMES.stream().collect(Collectors.toUnmodifiableMap(
+			Function.identity(),
+			reportName -> new PortalView(
+				parser.getString("portal.%1$s.%2$s.scene".formatted(portalApplicationName, reportName)),
+				parser.getString("portal.%1$s.%2$s.view".formatted(portalApplicationName, reportName)))));
+		permissionUrl = parser.getString(
+			"portal.%1$s.permission.url".formatted(portalApplicationName));
+		portalTokenFile = parser.getFile("portal.token.file", ".portal-session.properties");
+		portalTokenLifetime = Duration.ofHours(parser.getPositiveInt("portal.token.lifetime.hours", 12));
+		portalRetryMaxAttempts = parser.getPositiveInt("portal.retry.max.attempts", 6);
+		portalRetryBaseDelay = Duration.ofMillis(
+			parser.getPositiveInt("portal.retry.base.delay.ms", 500));
+		portalRetryMaxDelay = Duration.ofMillis(
+			parser.getPositiveInt("portal.retry.max.delay.ms", 30_000));
+		portalRequestBudget = parser.getPositiveInt("portal.request.budget", 1_000);
+
+		// A list of sites turns on multi-site mode, otherwise there is just one:
+		var siteNames = parser.getOptionalString("scilympiad.sites");
+		if (siteNames == null) {
+			siteNames = parser.getString("scilympiad.site");
+		}
+		// The default report directory is needed only by a site without its own:
+		var defaultReportDir = parser.getOptionalString("scilympiad.report.dir");
+		scilympiadSites = (siteNames == null)
+			? List.of()
+			: Stream.of(siteNames.split(","))
+				.map(String::strip)
+				.filter(siteName -> !siteName.isEmpty())
+				.distinct()
+				.map(siteName -> new ScilympiadSite(siteName,
+					getSiteReportDir(parser, errors, siteName, defaultReportDir),
+					splitList(parser.getString(
+						"scilympiad.%1$s.suffixes".formatted(siteName), ""))))
+				.collect(Collectors.toUnmodifiableList());
+
+		if (!errors.isEmpty()) {
+			throw new IllegalArgumentException("Invalid configuration:%n   %1$s".formatted(
+				String.join("%n   ".formatted(), errors)));
+		}
+	}
+
+	private static File getSiteReportDir(Parser parser, List<String> errors, String siteName,
+			String defaultReportDir) {
+		var propName = "scilympiad.%1$s.report.dir".formatted(siteName);
+		var reportDir = parser.getString(propName, defaultReportDir);
+		if (reportDir == null) {
+			errors.add("Setting '%1$s' (or 'scilympiad.report.dir') is missing".formatted(
+				propName));
+			return null;
+		}
+		return new File(reportDir);
+	}
+
+	/** Returns a copy of the raw settings, e.g. for a javax.mail Session. */
+	public Properties getProperties() {
+		var result = new Properties();
+		props.stringPropertyNames().forEach(name -> result.setProperty(name, props.getProperty(name)));
+		return result;
+	}
+
+	public File getMasterReportFile() {
+		return masterReportFile;
+	}
+
+	public File getAdjudicationLogFile() {
+		return adjudicationLogFile;
+	}
+
+	public boolean isSendReports() {
+		return sendReports;
+	}
+
+	public boolean isFindDuplicates() {
+		return findDuplicates;
+	}
+
+	public File getDigestFile() {
+		return digestFile;
+	}
+
+	public Duration getReminderInterval() {
+		return reminderInterval;
+	}
+
+	public Duration getWatchQuietPeriod() {
+		return watchQuietPeriod;
+	}
+
+	/** The interface the lookup server binds to, which is loopback unless configured. */
+	public String getLookupServerHost() {
+		return lookupServerHost;
+	}
+
+	public int getLookupServerPort() {
+		return lookupServerPort;
+	}
+
+	public int getLookupMaxResults() {
+		return lookupMaxResults;
+	}
+
+	public String getMailFrom() {
+		return mailFrom;
+	}
+
+	public String getMailUser() {
+		return mailUser;
+	}
+
+	public String getMailPassword() {
+		return mailPassword;
+	}
+
+	public int getNumSendThreads() {
+		return numSendThreads;
+	}
+
+	public int getMaxMessagesPerConnection() {
+		return maxMessagesPerConnection;
+	}
+
+	public File getOutboxDir() {
+		return outboxDir;
+	}
+
+	public Duration getOutboxResendWindow() {
+		return outboxResendWindow;
+	}
+
+	public String getPortalApiUrl() {
+		return portalApiUrl;
+	}
+
+	public String getPortalApplicationName() {
+		return portalApplicationName;
+	}
+
+	public File getPortalReportDir() {
+		return portalReportDir;
+	}
+
+	public String getPortalUser() {
+		return portalUser;
+	}
+
+	public String getPortalPassword() {
+		return portalPassword;
+	}
+
+	public String getPortalApplicationId() {
+		return portalApplicationId;
+	}
+
+	public PortalView getPortalView(String reportName) {
+		var result = portalViews.get(reportName);
+		if (result == null) {
+			throw new IllegalArgumentException(
+				"Unknown portal report '%1$s'".formatted(reportName));
+		}
+		return result;
+	}
+
+	public String getPermissionUrl() {
+		return permissionUrl;
+	}
+
+	public File getPortalTokenFile() {
+		return portalTokenFile;
+	}
+
+	public Duration getPortalTokenLifetime() {
+		return portalTokenLifetime;
+	}
+
+	public int getPortalRetryMaxAttempts() {
+		return portalRetryMaxAttempts;
+	}
+
+	public Duration getPortalRetryBaseDelay() {
+		return portalRetryBaseDelay;
+	}
+
+	public Duration getPortalRetryMaxDelay() {
+		return portalRetryMaxDelay;
+	}
+
+	public int getPortalRequestBudget() {
+		return portalRequestBudget;
+	}
+
+	public List<ScilympiadSite> getScilympiadSites() {
+		return scilympiadSites;
+	}
+
+	public boolean isMultiSite() {
+		return scilympiadSites.size() > 1;
+	}
+
+	/** In multi-site mode, each site has its own master report. */
+	public File getMasterReportFile(ScilympiadSite site) {
+		return isMultiSite()
+			? Util.appendToStem(masterReportFile, "-" + site.name())
+			: masterReportFile;
+	}
+
+	/** In multi-site mode, each site has its own adjudicated verdicts. */
+	public File getAdjudicationLogFile(ScilympiadSite site) {
+		return isMultiSite()
+			? Util.appendToStem(adjudicationLogFile, "-" + site.name())
+			: adjudicationLogFile;
+	}
+
+	/** In multi-site mode, each site has its own notification digests. */
+	public File getDigestFile(ScilympiadSite site) {
+		return isMultiSite()
+			? Util.appendToStem(digestFile, "-" + site.name())
+			: digestFile;
+	}
+
+	private static List<String> splitList(String list) {
+		return Stream.of(list.split(","))
+			.map(String::strip)
+			.collect(Collectors.toUnmodifiableList());
+	}
+
+	private static String stripTrailingSlash(String url) {
+		return (url != null && url.endsWith("/"))
+			? url.substring(0, url.length() - 1)
+			: url;
+	}
+
+	/**
+	 * Returns the configuration file that is read and watched for edits, or
+	 * null if the settings come from the classpath.
+	 */
+	public static File getFile() {
+		var path = System.getProperty(FILE_PROPERTY);
+		if (path != null && !path.isBlank()) {
+			return new File(path.strip());
+		}
+		var localFile = new File(Util.CONFIGURATION_RESOURCE);
+		return localFile.isFile() ? localFile : null;
+	}
+
+	/* Returns null if the settings do not come from a file */
+	private static FileTime getLastModified(File file) {
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		try {
+			return Files.getLastModifiedTime(file.toPath());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/* Reads settings, recording each problem rather than stopping at the first */
+	private static class Parser {
+		private final Properties props;
+		private final List<String> errors;
+
+		public Parser(Properties props, List<String> errors) {
+			this.props = props;
+			this.errors = errors;
+		}
+
+		public String getOptionalString(String propName) {
+			var value = props.getProperty(propName);
+			return (value == null || value.isBlank())
+				? null
+				: value.strip();
+		}
+
+		public String getString(String propName, String defaultValue) {
+			var value = getOptionalString(propName);
+			return (value == null) ? defaultValue : value;
+		}
+
+		public String getString(String propName) {
+			var value = getOptionalString(propName);
+			if (value == null) {
+				errors.add("Setting '%1$s' is missing".formatted(propName));
+			}
+			return value;
+		}
+
+		public File getFile(String propName) {
+			var value = getString(propName);
+			return (value == null) ? null : new File(value);
+		}
+
+		public File getFile(String propName, String defaultValue) {
+			return new File(getString(propName, defaultValue));
+		}
+
+		public boolean getBoolean(String propName, boolean defaultValue) {
+			var value = getOptionalString(propName);
+			if (value == null) {
+				return defaultValue;
+			} else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+				return Boolean.parseBoolean(value);
+			} else {
+				errors.add("Setting '%1$s' must be true or false, not '%2$s'".formatted(
+					propName, value));
+				return defaultValue;
+			}
+		}
+
+		public int getPositiveInt(String propName, int defaultValue) {
+			var value = getOptionalString(propName);
+			if (value == null) {
+				return defaultValue;
+			}
+			try {
+				int result = Integer.parseInt(value);
+				if (result > 0) {
+					return result;
+				}
+			} catch (NumberFormatException ex) {
+				// Fall through to the error below
+			}
+			errors.add("Setting '%1$s' must be a positive integer, not '%2$s'".formatted(
+				propName, value));
+			return defaultValue;
+		}
+	}
+}
@@ -10,10 +10,10 @@ import java.util.stream.Stream;
 import org.apache.commons.csv.CSVParser;
 
 public class ConsolidatedCoachRetriever {
-	private static final String RESOURCE_NAME = "coaches-extra.csv";
-	private static final String SCHOOL_COLUMN = "School Name";
-	private static final String NAME_COLUMN = "Coach Name";
-	private static final String EMAIL_COLUMN = "Head Coach Email";
+	static final String RESOURCE_NAME = "coaches-extra.csv";
+	static final String SCHOOL_COLUMN = "School Name";
+	static final String NAME_COLUMN = "Coach Name";
+	static final String EMAIL_COLUMN = "Head Coach Email";
 
 	private ConsolidatedCoachRetriever() {}	// prevent instantiation
 
@@ -41,7 +41,7 @@ public class ConsolidatedCoachRetriever {
 	}
 
 	private static List<Coach> getExtraCoachList() throws IOException {
-		Stopwatch timer = new Stopwatch();
+		var timer = Metrics.get().startTimer("coach.extra.parse");
 		try (
 			var is = Util.getResourceAsInputStream(RESOURCE_NAME);
 			var parser = CSVParser.parse(is, Util.CHARSET, Util.CSV_FORMAT);
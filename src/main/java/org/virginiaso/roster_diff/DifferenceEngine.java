@@ -1,17 +1,63 @@
 package org.virginiaso.roster_diff;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class DifferenceEngine {
-	private static final int DISTANCE_THRESHOLD = 4;
+	/**
+	 * How the engine holds its students.  SORTED keeps every set and map in
+	 * student order.  HASHED uses insertion-ordered hash sets and maps, which
+	 * avoid a comparison per lookup, and leaves sorting to the reports.  The
+	 * per-school results are sorted in both modes.
+	 */
+	public static enum Mode {
+		SORTED,
+		HASHED
+	}
 
+	/**
+	 * The comparison results for a single (canonical) school.  The sets are
+	 * sorted, and none of the collections may be modified.
+	 */
+	public static record SchoolResults(
+		Set<Student> sStudentsNotFoundInP,
+		Set<Student> pStudentsNotFoundInS,
+		Map<Student, Map<Integer, List<Student>>> results) {
+
+		private static final SchoolResults EMPTY = new SchoolResults(
+			Collections.emptySortedSet(), Collections.emptySortedSet(), Collections.emptySortedMap());
+
+		/** Returns the results of a school with no students on either roster. */
+		public static SchoolResults empty() {
+			return EMPTY;
+		}
+	}
+
+	private static record StudentPair(Student sStudent, Student pStudent) {}
+
+	static final int DISTANCE_THRESHOLD = 4;
+
+	static final String COMPARE_TIMER = "engine.compare";
+	static final String PAIRS_SCORED_COUNTER = "engine.pairs.scored";
+	static final String PAIRS_PRUNED_COUNTER = "engine.pairs.pruned";
+	static final String CANDIDATES_EMITTED_COUNTER = "engine.candidates.emitted";
+
+	private final Mode mode;
 	private final Set<Student> pStudents;
 	private final Set<Student> sStudents;
 	private final List<Match> matches;
@@ -21,35 +67,103 @@ public class DifferenceEngine {
 	// Map of Scilympiad students to a map of distance to list of Portal students
 	private final Map<Student, Map<Integer, List<Student>>> results;
 
+	// Map of school to the unmatched students and near-matches at that school
+	private Map<String, SchoolResults> schoolIndex;
+
 	public static DifferenceEngine compare(List<Match> manualMatches,
 			List<Student> pStudents, List<Student> sStudents,
 			DistanceFunction distanceFunction) {
-		Stopwatch timer = new Stopwatch();
-		DifferenceEngine engine = new DifferenceEngine(manualMatches, pStudents, sStudents);
-		engine.compare(distanceFunction);
+		return compare(manualMatches, new RosterIndex(pStudents, distanceFunction), sStudents);
+	}
+
+	/**
+	 * Compares against a prepared index of the Portal students, which may be
+	 * shared by concurrent comparisons.
+	 */
+	public static DifferenceEngine compare(List<Match> manualMatches, RosterIndex pIndex,
+			List<Student> sStudents) {
+		return compare(manualMatches, pIndex, sStudents, Mode.SORTED);
+	}
+
+	public static DifferenceEngine compare(List<Match> manualMatches, RosterIndex pIndex,
+			List<Student> sStudents, Mode mode) {
+		var timer = Metrics.get().startTimer(COMPARE_TIMER);
+		DifferenceEngine engine = new DifferenceEngine(manualMatches, pIndex.getStudents(),
+			sStudents, mode);
+		engine.compare(pIndex, true);
 		timer.stopAndReport("Performed comparison");
 		return engine;
 	}
 
-	private DifferenceEngine(List<Match> manualMatches, List<Student> pStudentList,
-			List<Student> sStudentList) {
-		pStudents = new TreeSet<>(pStudentList);
-		sStudents = new TreeSet<>(sStudentList);
+	/**
+	 * Compares one partition of the rosters, quietly, since a streamed run
+	 * compares hundreds of them.  Their progress is tracked by school instead.
+	 */
+	public static DifferenceEngine compare(RosterPartitioner.Partition partition,
+			DistanceFunction distanceFunction) {
+		var timer = Metrics.get().startTimer(COMPARE_TIMER);
+		DifferenceEngine engine = new DifferenceEngine(partition.manualMatches(),
+			partition.pStudents(), partition.sStudents(), Mode.HASHED);
+		engine.compare(new RosterIndex(partition.pStudents(), distanceFunction), false);
+		timer.stop();
+		return engine;
+	}
+
+	/**
+	 * Combines the engines of disjoint partitions of the rosters into one, for
+	 * the master report of a streamed run.
+	 */
+	public static DifferenceEngine merge(List<DifferenceEngine> partitions) {
+		DifferenceEngine merged = new DifferenceEngine(partitions.isEmpty()
+			? Mode.HASHED
+			: partitions.get(0).mode);
+		Map<String, SchoolResults> index = new TreeMap<>();
+		for (DifferenceEngine partition : partitions) {
+			merged.pStudents.addAll(partition.pStudents);
+			merged.sStudents.addAll(partition.sStudents);
+			merged.matches.addAll(partition.matches);
+			merged.pStudentsNotFoundInS.addAll(partition.pStudentsNotFoundInS);
+			merged.sStudentsNotFoundInP.addAll(partition.sStudentsNotFoundInP);
+			merged.results.putAll(partition.results);
+			index.putAll(partition.schoolIndex);
+		}
+		merged.schoolIndex = Collections.unmodifiableMap(index);
+		return merged;
+	}
 
+	private DifferenceEngine(Mode mode) {
+		this.mode = mode;
+		pStudents = newSet();
+		sStudents = newSet();
 		matches = new ArrayList<>();
+		pStudentsNotFoundInS = newSet();
+		sStudentsNotFoundInP = newSet();
+		results = (mode == Mode.SORTED)
+			? new TreeMap<>()
+			: new LinkedHashMap<>();
+		schoolIndex = Collections.emptySortedMap();
+	}
+
+	private DifferenceEngine(List<Match> manualMatches, Collection<Student> pStudentList,
+			Collection<Student> sStudentList, Mode mode) {
+		this(mode);
+		pStudents.addAll(pStudentList);
+		sStudents.addAll(sStudentList);
+
+		// First, get the student from each list equal to the corresponding
+		// student in the match.  This ensures that we are preserving the most
+		// recent values of the student fields that are not used in the equality
+		// comparison (like team number).
+		Map<Student, Student> pCanonical = pStudents.stream().collect(
+			Collectors.toMap(Function.identity(), Function.identity(), (lhs, rhs) -> lhs,
+				HashMap::new));
+		Map<Student, Student> sCanonical = sStudents.stream().collect(
+			Collectors.toMap(Function.identity(), Function.identity(), (lhs, rhs) -> lhs,
+				HashMap::new));
+
 		for (Match match : manualMatches) {
-			// First, get the student from each list equal to the corresponding
-			// student in the match.  This ensures that we are preserving the most
-			// recent values of the student fields that are not used in the equality
-			// comparison (like team number).
-			Student pStudent = pStudents.stream()
-				.filter(match.getPStudent()::equals)
-				.findFirst()
-				.orElse(null);
-			Student sStudent = sStudents.stream()
-				.filter(match.getSStudent()::equals)
-				.findFirst()
-				.orElse(null);
+			Student pStudent = pCanonical.get(match.getPStudent());
+			Student sStudent = sCanonical.get(match.getSStudent());
 			if (pStudent == null || sStudent == null) {
 				// Skip this match -- it's now invalid, because one of the two
 				// students no longer appears in the corresponding input file.
@@ -59,35 +173,79 @@ public class DifferenceEngine {
 				matches.add(new Match(sStudent, pStudent, match.getVerdict()));
 				pStudents.remove(pStudent);
 				sStudents.remove(sStudent);
+				pCanonical.remove(pStudent);
+				sCanonical.remove(sStudent);
 			} else {
 				throw new IllegalStateException(
 					"Master report verdicts should be 'Different' or 'Same', not '%1$s'"
 						.formatted(match.getVerdict()));
 			}
 		}
+	}
+
+	private Set<Student> newSet() {
+		return (mode == Mode.SORTED)
+			? new TreeSet<>()
+			: new LinkedHashSet<>();
+	}
+
+	private void compare(RosterIndex pIndex, boolean trackProgress) {
+		DistanceFunction distanceFunction = pIndex.getDistanceFunction();
+		// The index includes the Portal students that were manually matched:
+		Set<Student> pStudentsToCompare = new HashSet<>(pStudents);
+		Set<StudentPair> pairsMarkedAsDifferent = matches.stream()
+			.filter(match -> Verdict.DIFFERENT.equals(match.getVerdict()))
+			.map(match -> new StudentPair(match.getSStudent(), match.getPStudent()))
+			.collect(Collectors.toCollection(HashSet::new));
 
-		pStudentsNotFoundInS = new TreeSet<>();
-		sStudentsNotFoundInP = new TreeSet<>();
-		results = new TreeMap<>();
-	}
-
-	private void compare(DistanceFunction distanceFunction) {
-		for (Student pStudent : pStudents) {
-			for (Student sStudent : sStudents) {
-				boolean pairIsMarkedAsDifferent = matches.stream()
-					.filter(match -> Verdict.DIFFERENT.equals(match.getVerdict()))
-					.filter(match -> match.getPStudent().equals(pStudent))
-					.filter(match -> match.getSStudent().equals(sStudent))
-					.findAny()
-					.isPresent();
-				int distance = pairIsMarkedAsDifferent
-					? Integer.MAX_VALUE
-					: distanceFunction.applyAsInt(pStudent, sStudent);
-				results
-					.computeIfAbsent(sStudent, key -> new TreeMap<>())
-					.computeIfAbsent(distance, key -> new ArrayList<>())
-					.add(pStudent);
+		var progress = trackProgress
+			? Progress.get()
+			: null;
+		if (progress != null) {
+			progress.startComparison(sStudents.stream()
+				.mapToLong(sStudent -> pIndex.getCandidates(sStudent).size())
+				.sum());
+		}
+
+		// Each school's students form one chunk for the flight recorder.  In
+		// HASHED mode the students are in roster order rather than by school,
+		// so group them first:
+		Map<String, List<Student>> sStudentsBySchool = sStudents.stream()
+			.collect(Collectors.groupingBy(
+				sStudent -> Objects.requireNonNullElse(sStudent.school(), ""),
+				LinkedHashMap::new, Collectors.toList()));
+		long pairsScored = 0;
+		for (var schoolEntry : sStudentsBySchool.entrySet()) {
+			var chunk = new FlightEvents.CompareChunk();
+			chunk.begin();
+			chunk.school = schoolEntry.getKey();
+			chunk.sStudents = schoolEntry.getValue().size();
+			long pairsScoredBeforeChunk = pairsScored;
+			for (Student sStudent : schoolEntry.getValue()) {
+				// Pairs outside of a block are beyond the threshold, so skip them:
+				var candidates = pIndex.getCandidates(sStudent);
+				for (Student pStudent : candidates) {
+					if (!pStudentsToCompare.contains(pStudent)) {
+						continue;
+					}
+					int distance;
+					if (pairsMarkedAsDifferent.contains(new StudentPair(sStudent, pStudent))) {
+						distance = Integer.MAX_VALUE;
+					} else {
+						distance = distanceFunction.applyAsInt(pStudent, sStudent);
+						++pairsScored;
+					}
+					results
+						.computeIfAbsent(sStudent, key -> new TreeMap<>())
+						.computeIfAbsent(distance, key -> new ArrayList<>())
+						.add(pStudent);
+				}
+				if (progress != null) {
+					progress.pairsCompared(candidates.size());
+				}
 			}
+			chunk.pairsScored = pairsScored - pairsScoredBeforeChunk;
+			chunk.commit();
 		}
 
 		// Compile a list of exact matches:
@@ -102,13 +260,17 @@ public class DifferenceEngine {
 		}
 
 		// Remove the exact matches from the results data structure:
+		Set<Student> exactlyMatchedPStudents = new HashSet<>();
 		for (Match match : matches) {
 			if (match.getVerdict() == Verdict.EXACT_MATCH) {
 				results.remove(match.getSStudent());
-				for (Map<Integer, List<Student>> outerValue : results.values()) {
-					for (List<Student> innerValue : outerValue.values()) {
-						innerValue.remove(match.getPStudent());
-					}
+				exactlyMatchedPStudents.add(match.getPStudent());
+			}
+		}
+		if (!exactlyMatchedPStudents.isEmpty()) {
+			for (Map<Integer, List<Student>> outerValue : results.values()) {
+				for (List<Student> innerValue : outerValue.values()) {
+					innerValue.removeIf(exactlyMatchedPStudents::contains);
 				}
 			}
 		}
@@ -138,6 +300,15 @@ public class DifferenceEngine {
 			}
 		}
 
+		var metrics = Metrics.get();
+		metrics.add(PAIRS_SCORED_COUNTER, pairsScored);
+		metrics.add(PAIRS_PRUNED_COUNTER,
+			(long) sStudents.size() * pStudentsToCompare.size() - pairsScored);
+		metrics.add(CANDIDATES_EMITTED_COUNTER, results.values().stream()
+			.flatMap(distanceMap -> distanceMap.values().stream())
+			.mapToLong(List::size)
+			.sum());
+
 		// Compile sets of unmatched students:
 		pStudentsNotFoundInS.addAll(pStudents);
 		sStudentsNotFoundInP.addAll(sStudents);
@@ -147,25 +318,89 @@ public class DifferenceEngine {
 				sStudentsNotFoundInP.remove(match.getSStudent());
 			}
 		}
+
+		schoolIndex = buildSchoolIndex();
+	}
+
+	/*
+	 * Groups the unmatched students and the near-matches by school, so that
+	 * per-school reporting touches only that school's students.  Near-matches
+	 * are filed under the school of the Scilympiad student.
+	 */
+	private Map<String, SchoolResults> buildSchoolIndex() {
+		Map<String, SortedSet<Student>> sBySchool = sStudentsNotFoundInP.stream().collect(
+			Collectors.groupingBy(Student::school, TreeMap::new,
+				Collectors.toCollection(TreeSet::new)));
+		Map<String, SortedSet<Student>> pBySchool = pStudentsNotFoundInS.stream().collect(
+			Collectors.groupingBy(Student::school, TreeMap::new,
+				Collectors.toCollection(TreeSet::new)));
+		Map<String, Map<Student, Map<Integer, List<Student>>>> resultsBySchool = new TreeMap<>();
+		results.forEach((sStudent, distanceMap) -> resultsBySchool
+			.computeIfAbsent(sStudent.school(), key -> new TreeMap<>())
+			.put(sStudent, Collections.unmodifiableMap(distanceMap)));
+
+		Set<String> schools = new TreeSet<>();
+		schools.addAll(sBySchool.keySet());
+		schools.addAll(pBySchool.keySet());
+		schools.addAll(resultsBySchool.keySet());
+
+		Map<String, SchoolResults> index = new TreeMap<>();
+		for (String school : schools) {
+			index.put(school, new SchoolResults(
+				unmodifiableSortedSet(sBySchool.get(school)),
+				unmodifiableSortedSet(pBySchool.get(school)),
+				Collections.unmodifiableMap(
+					resultsBySchool.getOrDefault(school, Collections.emptySortedMap()))));
+		}
+		return Collections.unmodifiableMap(index);
+	}
+
+	private static Set<Student> unmodifiableSortedSet(SortedSet<Student> set) {
+		return (set == null)
+			? Collections.emptySortedSet()
+			: Collections.unmodifiableSortedSet(set);
 	}
 
 	public List<Match> getMatches() {
 		return matches;
 	}
 
+	public Mode getMode() {
+		return mode;
+	}
+
+	/** Returns the unmatched Portal students, sorted only in SORTED mode. */
 	public Set<Student> getPStudentsNotFoundInS() {
 		return pStudentsNotFoundInS;
 	}
 
+	/** Returns the unmatched Scilympiad students, sorted only in SORTED mode. */
 	public Set<Student> getSStudentsNotFoundInP() {
 		return sStudentsNotFoundInP;
 	}
 
+	/**
+	 * Returns the unmatched students and near-matches for one school.
+	 *
+	 * @param school The canonical school name
+	 * @return The school's results, which are empty if the school has no
+	 *         unmatched students or near-matches
+	 */
+	public SchoolResults getSchoolResults(String school) {
+		return schoolIndex.getOrDefault(school, SchoolResults.EMPTY);
+	}
+
+	/** Returns an unmodifiable map of school name to that school's results. */
+	public Map<String, SchoolResults> getSchoolIndex() {
+		return schoolIndex;
+	}
+
 	/**
 	 * Returns the results of the comparison.
 	 *
 	 * @return A map of s-student -> map of distance -> list of p-students at that
-	 *         distance from the s-student
+	 *         distance from the s-student, sorted by s-student only in SORTED
+	 *         mode
 	 */
 	public Map<Student, Map<Integer, List<Student>>> getResults() {
 		return results;
@@ -3,4 +3,13 @@ package org.virginiaso.roster_diff;
 import java.util.function.ToIntBiFunction;
 
 public interface DistanceFunction extends ToIntBiFunction<Student, Student> {
+	/**
+	 * Returns the key of the block of candidates for a student.  Two students
+	 * whose keys differ must be farther apart than the match threshold of
+	 * DifferenceEngine, so that comparing only within a block loses nothing.
+	 * The default puts every student in one block.
+	 */
+	default String blockingKey(Student student) {
+		return "";
+	}
 }
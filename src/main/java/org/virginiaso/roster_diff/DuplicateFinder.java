@@ -0,0 +1,128 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds probable duplicate entries within one roster, such as a student
+ * registered twice under slightly different names, by comparing the roster
+ * with itself.  Distance is symmetric, so each pair within a block is scored
+ * once (i < j), and pairs in different blocks are never scored.  Pairs within
+ * the threshold are joined transitively into clusters.
+ */
+public class DuplicateFinder {
+	/** A student in a cluster, and the distance to its nearest fellow member. */
+	public static record Member(Student student, int nearestDistance) {}
+
+	/** Two or more students who are probably the same person, in sorted order. */
+	public static record Cluster(List<Member> members) {
+		public String school() {
+			return members.get(0).student().school();
+		}
+	}
+
+	static final String PAIRS_SCORED_COUNTER = "duplicates.pairs.scored";
+	static final String CLUSTERS_FOUND_COUNTER = "duplicates.clusters.found";
+
+	private static final Comparator<Cluster> CLUSTER_ORDER = Comparator.comparing(
+		cluster -> cluster.members().get(0).student());
+
+	private final DistanceFunction distanceFunction;
+	private final int threshold;
+
+	/**
+	 * @param threshold The largest distance between duplicates, which may not
+	 *                  exceed the DifferenceEngine threshold that the distance
+	 *                  function's blocking is designed for
+	 */
+	public DuplicateFinder(DistanceFunction distanceFunction, int threshold) {
+		if (threshold < 0 || threshold > DifferenceEngine.DISTANCE_THRESHOLD) {
+			throw new IllegalArgumentException(
+				"Duplicate threshold %1$d is outside of 0 to %2$d".formatted(
+					threshold, DifferenceEngine.DISTANCE_THRESHOLD));
+		}
+		this.distanceFunction = distanceFunction;
+		this.threshold = threshold;
+	}
+
+	/** Returns the clusters of probable duplicates, ordered by their first student. */
+	public List<Cluster> find(Collection<Student> roster) {
+		Map<String, List<Student>> blocks = new LinkedHashMap<>();
+		for (Student student : roster) {
+			blocks.computeIfAbsent(distanceFunction.blockingKey(student),
+				key -> new ArrayList<>()).add(student);
+		}
+
+		List<Cluster> clusters = new ArrayList<>();
+		long pairsScored = 0;
+		for (List<Student> block : blocks.values()) {
+			if (block.size() < 2) {
+				continue;
+			}
+			Collections.sort(block);
+			pairsScored += (long) block.size() * (block.size() - 1) / 2;
+			clusters.addAll(findInBlock(block));
+		}
+		clusters.sort(CLUSTER_ORDER);
+
+		Metrics.get().add(PAIRS_SCORED_COUNTER, pairsScored);
+		Metrics.get().add(CLUSTERS_FOUND_COUNTER, clusters.size());
+		return clusters;
+	}
+
+	private List<Cluster> findInBlock(List<Student> block) {
+		int n = block.size();
+		int[] parent = new int[n];
+		int[] nearest = new int[n];
+		for (int i = 0; i < n; ++i) {
+			parent[i] = i;
+		}
+		Arrays.fill(nearest, Integer.MAX_VALUE);
+
+		for (int i = 0; i < n; ++i) {
+			for (int j = i + 1; j < n; ++j) {
+				int distance = distanceFunction.applyAsInt(block.get(i), block.get(j));
+				if (distance <= threshold) {
+					union(parent, i, j);
+					nearest[i] = Math.min(nearest[i], distance);
+					nearest[j] = Math.min(nearest[j], distance);
+				}
+			}
+		}
+
+		// Group by root, keeping the block's sorted order within each cluster:
+		Map<Integer, List<Member>> membersByRoot = new TreeMap<>();
+		for (int i = 0; i < n; ++i) {
+			if (nearest[i] != Integer.MAX_VALUE) {
+				membersByRoot.computeIfAbsent(find(parent, i), key -> new ArrayList<>())
+					.add(new Member(block.get(i), nearest[i]));
+			}
+		}
+		return membersByRoot.values().stream()
+			.map(members -> new Cluster(Collections.unmodifiableList(members)))
+			.toList();
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];	// path halving
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parent, int i, int j) {
+		int rootI = find(parent, i);
+		int rootJ = find(parent, j);
+		if (rootI != rootJ) {
+			parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+		}
+	}
+}
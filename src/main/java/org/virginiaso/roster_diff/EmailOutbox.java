@@ -0,0 +1,279 @@
+package org.virginiaso.roster_diff;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A durable, on-disk outbox for the per-school emails.  Each message is
+ * spooled to a file named for the school and a hash of the message content,
+ * and delivery workers drain the spool, recording each delivery in an
+ * append-only log before deleting the spooled file.  A re-run therefore skips
+ * messages that were already delivered (within the resend window), and a run
+ * that crashed partway through resumes with the messages it had not yet sent.
+ * Delivery is at-least-once:  a crash between a send and its log entry causes
+ * that one message to be sent again.
+ */
+public class EmailOutbox {
+	public static record DrainResult(int numSent, int numFailed) {}
+
+	private static final String PENDING_DIR_NAME = "pending";
+	private static final String SENT_LOG_NAME = "sent.log";
+	private static final String MESSAGE_EXT = ".eml";
+	private static final String SCHOOL_KEY_SEPARATOR = "--";
+	private static final String FIELD_SEPARATOR = "\t";
+	private static final int SCHOOL_HASH_BYTES = 8;
+
+	private final Emailer emailer;
+	private final Path outboxDir;
+	private final Path pendingDir;
+	private final Path sentLog;
+	private final Duration resendWindow;
+	// Map of message key to the time it was most recently delivered:
+	private final Map<String, Instant> deliveries;
+
+	EmailOutbox(Emailer emailer, File outboxDir, Duration resendWindow) {
+		this.emailer = emailer;
+		this.outboxDir = outboxDir.toPath();
+		pendingDir = this.outboxDir.resolve(PENDING_DIR_NAME);
+		sentLog = this.outboxDir.resolve(SENT_LOG_NAME);
+		this.resendWindow = resendWindow;
+		try {
+			Files.createDirectories(pendingDir);
+			deliveries = readSentLog(sentLog);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/** Computes the idempotency key of a message from its content. */
+	public static String computeKey(String school, List<String> recipients, String subject,
+			String body) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			Stream.concat(Stream.of(school, subject, body), recipients.stream().sorted())
+				.forEach(part -> {
+					digest.update(part.getBytes(Util.CHARSET));
+					digest.update((byte) 0);
+				});
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Spools a message for delivery, replacing any undelivered message for the
+	 * same school.
+	 *
+	 * @return false if an identical message was delivered within the resend
+	 *         window, and so was not spooled
+	 */
+	public synchronized boolean enqueue(String school, String key, MimeMessage message) {
+		if (wasDeliveredRecently(key)) {
+			return false;
+		}
+		var schoolPrefix = toFileNameStem(school) + SCHOOL_KEY_SEPARATOR;
+		var messageFile = pendingDir.resolve(schoolPrefix + key + MESSAGE_EXT);
+		try {
+			try (Stream<Path> stream = listPendingFiles()) {
+				for (Path stale : stream
+						.filter(file -> file.getFileName().toString().startsWith(schoolPrefix))
+						.filter(file -> !file.equals(messageFile))
+						.collect(Collectors.toList())) {
+					Files.deleteIfExists(stale);
+				}
+			}
+			if (!Files.exists(messageFile)) {
+				Path tmpFile = Files.createTempFile(outboxDir, "message-", ".tmp");
+				try (OutputStream os = Files.newOutputStream(tmpFile)) {
+					message.writeTo(os);
+				}
+				Files.move(tmpFile, messageFile, StandardCopyOption.ATOMIC_MOVE);
+			}
+			return true;
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} catch (MessagingException ex) {
+			throw new UncheckedMessagingException(ex);
+		}
+	}
+
+	public int getNumPending() {
+		try (Stream<Path> stream = listPendingFiles()) {
+			return (int) stream.count();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Delivers every spooled message, including any left over from an earlier
+	 * run.  Messages that fail stay in the spool for the next run.
+	 */
+	public DrainResult drain(SmtpTransportPool transportPool, ExecutorService executor) {
+		List<Path> messageFiles;
+		try (Stream<Path> stream = listPendingFiles()) {
+			messageFiles = stream.sorted().collect(Collectors.toList());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		var numSent = new AtomicInteger(0);
+		var numFailed = new AtomicInteger(0);
+		CompletableFuture<?>[] futures = messageFiles.stream()
+			.map(messageFile -> CompletableFuture.runAsync(() -> {
+				if (tryDeliver(messageFile, transportPool)) {
+					numSent.incrementAndGet();
+				} else {
+					numFailed.incrementAndGet();
+				}
+			}, executor))
+			.toArray(CompletableFuture<?>[]::new);
+		CompletableFuture.allOf(futures).join();
+		return new DrainResult(numSent.get(), numFailed.get());
+	}
+
+	/**
+	 * Delivers the spooled message of one school right away, without waiting
+	 * for the other schools.  A message that fails stays in the spool for the
+	 * next drain.
+	 *
+	 * @return The number of messages sent and failed, which is at most one
+	 */
+	public DrainResult deliver(String school, SmtpTransportPool transportPool) {
+		var schoolPrefix = toFileNameStem(school) + SCHOOL_KEY_SEPARATOR;
+		List<Path> messageFiles;
+		try (Stream<Path> stream = listPendingFiles()) {
+			messageFiles = stream
+				.filter(file -> file.getFileName().toString().startsWith(schoolPrefix))
+				.collect(Collectors.toList());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+
+		int numSent = 0;
+		for (Path messageFile : messageFiles) {
+			if (tryDeliver(messageFile, transportPool)) {
+				++numSent;
+			}
+		}
+		return new DrainResult(numSent, messageFiles.size() - numSent);
+	}
+
+	private boolean tryDeliver(Path messageFile, SmtpTransportPool transportPool) {
+		try {
+			deliver(messageFile, transportPool);
+			return true;
+		} catch (IOException | MessagingException | RuntimeException ex) {
+			Progress.get().print("FAILED to send %1$s, left in the outbox (%2$s)%n".formatted(
+				messageFile.getFileName(), ex.getMessage()));
+			return false;
+		}
+	}
+
+	private void deliver(Path messageFile, SmtpTransportPool transportPool)
+			throws IOException, MessagingException {
+		MimeMessage message;
+		try (InputStream is = Files.newInputStream(messageFile)) {
+			message = emailer.readMessage(is);
+		}
+		transportPool.send(message);
+
+		var stem = Util.getStem(messageFile.getFileName().toString());
+		int separatorIndex = stem.lastIndexOf(SCHOOL_KEY_SEPARATOR);
+		var key = stem.substring(separatorIndex + SCHOOL_KEY_SEPARATOR.length());
+		recordDelivery(key, stem.substring(0, Math.max(separatorIndex, 0)));
+		Files.deleteIfExists(messageFile);
+		Progress.get().print("Email sent to %1$s%n".formatted(String.join(", ",
+			Stream.of(message.getAllRecipients()).map(Object::toString).toList())));
+	}
+
+	private synchronized boolean wasDeliveredRecently(String key) {
+		var deliveryTime = deliveries.get(key);
+		return deliveryTime != null
+			&& deliveryTime.plus(resendWindow).isAfter(Instant.now());
+	}
+
+	/* Appends to the sent log and forces it to disk before the spool file is deleted */
+	private synchronized void recordDelivery(String key, String schoolStem) throws IOException {
+		var now = Instant.now();
+		try (
+			FileChannel channel = FileChannel.open(sentLog, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			BufferedWriter wtr = new BufferedWriter(Channels.newWriter(channel, Util.CHARSET));
+		) {
+			wtr.write(String.join(FIELD_SEPARATOR, now.toString(), key, schoolStem));
+			wtr.newLine();
+			wtr.flush();
+			channel.force(false);
+		}
+		deliveries.put(key, now);
+	}
+
+	private static Map<String, Instant> readSentLog(Path sentLog) throws IOException {
+		Map<String, Instant> result = new HashMap<>();
+		if (Files.isRegularFile(sentLog)) {
+			try (Stream<String> lines = Files.lines(sentLog, Util.CHARSET)) {
+				lines.map(line -> line.split(FIELD_SEPARATOR, 3))
+					.filter(fields -> fields.length >= 2)
+					.forEach(fields -> {
+						try {
+							result.merge(fields[1], Instant.parse(fields[0]),
+								(t1, t2) -> t1.isAfter(t2) ? t1 : t2);
+						} catch (DateTimeParseException ex) {
+							// Skip a line torn by a crash
+						}
+					});
+			}
+		}
+		return result;
+	}
+
+	private Stream<Path> listPendingFiles() throws IOException {
+		return Files.list(pendingDir)
+			.filter(file -> file.getFileName().toString().endsWith(MESSAGE_EXT));
+	}
+
+	/*
+	 * The readable part alone could map two schools to the same stem (e.g.,
+	 * names that differ only in punctuation), and enqueue would then delete the
+	 * other school's notice as stale, so a hash of the exact name is appended.
+	 */
+	private static String toFileNameStem(String school) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+				school.getBytes(Util.CHARSET));
+			return "%1$s-%2$s".formatted(school.replaceAll("[^A-Za-z0-9]+", "-"),
+				HexFormat.of().formatHex(hash, 0, SCHOOL_HASH_BYTES));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
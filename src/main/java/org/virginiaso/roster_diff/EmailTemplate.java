@@ -0,0 +1,98 @@
+package org.virginiaso.roster_diff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A text template that uses the positional subset of the format-string
+ * syntax ({@code %1$s}, {@code %2$d}, {@code %%}, and {@code %n}).  The
+ * template is parsed once into literal and argument segments, so rendering
+ * just appends those segments to a caller-supplied StringBuilder.  An argument
+ * that is a {@link Fragment} renders itself in place, which lets a template
+ * embed the output of other templates without building intermediate strings.
+ */
+public class EmailTemplate {
+	/** An argument that appends its own rendering to the output. */
+	@FunctionalInterface
+	public static interface Fragment {
+		void appendTo(StringBuilder out);
+	}
+
+	private static final Pattern SPECIFIER = Pattern.compile("%(?:([1-9][0-9]*)\\$([sd])|(%)|(n))");
+
+	// Each segment is either a String literal or an Integer argument index:
+	private final Object[] segments;
+	private final int numArgs;
+
+	private EmailTemplate(List<Object> segments) {
+		this.segments = segments.toArray();
+		numArgs = segments.stream()
+			.filter(Integer.class::isInstance)
+			.mapToInt(Integer.class::cast)
+			.map(index -> index + 1)
+			.max()
+			.orElse(0);
+	}
+
+	public static EmailTemplate fromResource(String resourceName) throws IOException {
+		return parse(Util.getResourceAsString(resourceName));
+	}
+
+	public static EmailTemplate parse(String template) {
+		List<Object> segments = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		Matcher matcher = SPECIFIER.matcher(template);
+		int literalStart = 0;
+		while (matcher.find()) {
+			appendLiteral(literal, template, literalStart, matcher.start());
+			literalStart = matcher.end();
+			if (matcher.group(1) != null) {
+				if (literal.length() > 0) {
+					segments.add(literal.toString());
+					literal.setLength(0);
+				}
+				segments.add(Integer.parseInt(matcher.group(1)) - 1);
+			} else if (matcher.group(3) != null) {
+				literal.append('%');
+			} else {
+				literal.append(System.lineSeparator());
+			}
+		}
+		appendLiteral(literal, template, literalStart, template.length());
+		if (literal.length() > 0) {
+			segments.add(literal.toString());
+		}
+		return new EmailTemplate(segments);
+	}
+
+	private static void appendLiteral(StringBuilder literal, String template, int start,
+			int end) {
+		int strayPercent = template.indexOf('%', start);
+		if (strayPercent >= 0 && strayPercent < end) {
+			throw new IllegalArgumentException(
+				"Unsupported format specifier in template near '%1$s'".formatted(
+					template.substring(strayPercent, Math.min(strayPercent + 10, template.length()))));
+		}
+		literal.append(template, start, end);
+	}
+
+	/** Appends the template to {@code out}, filling in the given arguments. */
+	public void render(StringBuilder out, Object... args) {
+		if (args.length < numArgs) {
+			throw new IllegalArgumentException("Template requires %1$d arguments, but got %2$d"
+				.formatted(numArgs, args.length));
+		}
+		for (Object segment : segments) {
+			if (segment instanceof String literal) {
+				out.append(literal);
+			} else if (args[(Integer) segment] instanceof Fragment fragment) {
+				fragment.appendTo(out);
+			} else {
+				out.append(args[(Integer) segment]);
+			}
+		}
+	}
+}
@@ -2,16 +2,18 @@ package org.virginiaso.roster_diff;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
 import java.util.function.BiPredicate;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.activation.DataHandler;
@@ -29,11 +31,16 @@ import javax.mail.internet.MimeMultipart;
 
 public class Emailer {
 	private static final String MEDIA_TYPE = "text/html";
+	static final String SEND_TIMER = "email.send";
+	static final String SENT_COUNTER = "email.sent";
 
 	private final Session session;
 	private final String fromAddr;
 	private final String userName;
 	private final String password;
+	private final int maxMessagesPerConnection;
+	private final File outboxDir;
+	private final Duration outboxResendWindow;
 
 	public static void main(String[] args) {
 		try {
@@ -50,7 +57,10 @@ public class Emailer {
 				.max(Comparator.comparing(Path::toString))
 				.flatMap(dir -> find(dir, reportFilePredicate).min(Comparator.comparing(Path::toString)))
 				.map(Emailer::readFileContent)
-				.ifPresent(reportBody -> emailer.send("Test Email", reportBody, attachment, "Test School", recipients));
+				.ifPresent(reportBody -> {
+					emailer.send("Test Email", reportBody, attachment, "Test School", recipients);
+					System.out.format("Email sent to %1$s%n", String.join(", ", recipients));
+				});
 		} catch (Throwable ex) {
 			ex.printStackTrace();
 		}
@@ -73,11 +83,26 @@ public class Emailer {
 	}
 
 	public Emailer() throws IOException {
-		Properties props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		session = Session.getDefaultInstance(props);
-		fromAddr = props.getProperty("mail.from");
-		userName = props.getProperty("mail.user");
-		password = props.getProperty("mail.password");
+		this(Configuration.get());
+	}
+
+	Emailer(Configuration config) {
+		session = Session.getInstance(config.getProperties());
+		fromAddr = config.getMailFrom();
+		userName = config.getMailUser();
+		password = config.getMailPassword();
+		maxMessagesPerConnection = config.getMaxMessagesPerConnection();
+		outboxDir = config.getOutboxDir();
+		outboxResendWindow = config.getOutboxResendWindow();
+	}
+
+	/** Opens the durable outbox in the configured spool directory. */
+	public EmailOutbox openOutbox() {
+		return new EmailOutbox(this, outboxDir, outboxResendWindow);
+	}
+
+	MimeMessage readMessage(InputStream is) throws MessagingException {
+		return new MimeMessage(session, is);
 	}
 
 	public void send(String emailSubject, String emailBody, File attachment,
@@ -85,6 +110,60 @@ public class Emailer {
 		if (recipients == null || recipients.isEmpty()) {
 			return;
 		}
+		try {
+			var timer = Metrics.get().startTimer(SEND_TIMER);
+			var event = new FlightEvents.EmailSend();
+			event.begin();
+			Transport.send(createMessage(emailSubject, emailBody, attachment, recipients),
+				userName, password);
+			timer.stop();
+			Metrics.get().increment(SENT_COUNTER);
+			event.subject = emailSubject;
+			event.recipients = recipients.size();
+			event.commit();
+		} catch (MessagingException ex) {
+			throw new UncheckedMessagingException(ex);
+		}
+	}
+
+	/**
+	 * Opens a pool of SMTP connections for sending many messages.  The caller
+	 * must close the pool.
+	 */
+	public SmtpTransportPool openTransportPool(int poolSize) {
+		try {
+			return new SmtpTransportPool(session, userName, password, poolSize,
+				maxMessagesPerConnection);
+		} catch (MessagingException ex) {
+			throw new UncheckedMessagingException(ex);
+		}
+	}
+
+	/**
+	 * Sends a batch of messages over a pool of poolSize connections, using one
+	 * thread per connection.
+	 */
+	public void sendAll(List<MimeMessage> messages, int poolSize) {
+		var executor = Executors.newFixedThreadPool(Math.max(1, poolSize),
+			PhaseRecorder.threadFactory("send"));
+		try (var pool = openTransportPool(poolSize)) {
+			var futures = messages.stream()
+				.map(message -> CompletableFuture.runAsync(() -> {
+					try {
+						pool.send(message);
+					} catch (MessagingException ex) {
+						throw new UncheckedMessagingException(ex);
+					}
+				}, executor))
+				.toArray(CompletableFuture<?>[]::new);
+			CompletableFuture.allOf(futures).join();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public MimeMessage createMessage(String emailSubject, String emailBody, File attachment,
+			List<String> recipients) {
 		try {
 			Multipart multipartContent = new MimeMultipart();
 
@@ -105,10 +184,7 @@ public class Emailer {
 				.forEach(recipient -> addRecipient(message, recipient));
 			message.setSubject(emailSubject);
 			message.setContent(multipartContent);
-
-			Transport.send(message, userName, password);
-			System.out.format("Email sent to %1$s (%2$s)%n",
-				schoolName, recipients.stream().collect(Collectors.joining(", ")));
+			return message;
 		} catch (MessagingException ex) {
 			throw new UncheckedMessagingException(ex);
 		}
@@ -0,0 +1,112 @@
+package org.virginiaso.roster_diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of the roster diff, one per unit of work in
+ * each phase.  They cost next to nothing unless a recording is running, as it
+ * is with the --profile option, and they appear under "Roster Diff" in JDK
+ * Mission Control.
+ */
+public final class FlightEvents {
+	private static final String CATEGORY = "Roster Diff";
+
+	private FlightEvents() {}	// prevent instantiation
+
+	@Name("org.virginiaso.roster_diff.Phase")
+	@Label("Pipeline Phase")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class Phase extends Event {
+		@Label("Phase")
+		public String phase;
+
+		@Label("Allocated")
+		@DataAmount
+		public long allocatedBytes;
+	}
+
+	@Name("org.virginiaso.roster_diff.FileParse")
+	@Label("File Parse")
+	@Category(CATEGORY)
+	@Description("Reading one input file")
+	@StackTrace(false)
+	public static class FileParse extends Event {
+		@Label("File")
+		public String file;
+
+		@Label("Records")
+		public int records;
+
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("org.virginiaso.roster_diff.CompareChunk")
+	@Label("Comparison Chunk")
+	@Category(CATEGORY)
+	@Description("Comparing one school's Scilympiad students with their Portal candidates")
+	@StackTrace(false)
+	public static class CompareChunk extends Event {
+		@Label("School")
+		public String school;
+
+		@Label("Scilympiad Students")
+		public int sStudents;
+
+		@Label("Pairs Scored")
+		public long pairsScored;
+	}
+
+	@Name("org.virginiaso.roster_diff.PortalPageFetch")
+	@Label("Portal Page Fetch")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class PortalPageFetch extends Event {
+		@Label("Report")
+		public String report;
+
+		@Label("Page")
+		public int page;
+
+		@Label("Records")
+		public int records;
+	}
+
+	@Name("org.virginiaso.roster_diff.ReportWrite")
+	@Label("Report Write")
+	@Category(CATEGORY)
+	@Description("Writing the master report or one school's report")
+	@StackTrace(false)
+	public static class ReportWrite extends Event {
+		@Label("School")
+		@Description("Empty for the master report")
+		public String school;
+
+		@Label("Size")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("org.virginiaso.roster_diff.EmailSend")
+	@Label("Email Send")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	public static class EmailSend extends Event {
+		@Label("Subject")
+		public String subject;
+
+		@Label("Recipients")
+		public int recipients;
+
+		@Label("Reconnected")
+		public boolean reconnected;
+	}
+}
@@ -0,0 +1,192 @@
+package org.virginiaso.roster_diff;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Watches the input files of the roster diff (the Scilympiad report
+ * directories, the Portal report directory, the master reports, and the
+ * configuration file) and reports which of them changed.  A burst of file
+ * events, such as a large file being copied in, is debounced into a single
+ * change once the file system has been quiet for a while.
+ */
+public class InputWatcher implements AutoCloseable {
+	public static enum Input {
+		SCILYMPIAD_ROSTERS,
+		PORTAL_REPORTS,
+		MASTER_REPORT,
+		CONFIGURATION
+	}
+
+	private static record WatchedDir(Path dir, Input input) {}
+
+	private final WatchService watchService;
+	private final Map<WatchKey, WatchedDir> watchedDirs;
+	private final Set<Path> masterReports;
+	private final Path configurationFile;
+	private final Duration quietPeriod;
+	// Map of master report to the time this program last wrote it:
+	private final Map<Path, FileTime> ownMasterReportWrites;
+
+	/**
+	 * @param configurationFile The configuration file to watch, or null if the
+	 *                          configuration comes from the class path
+	 */
+	public InputWatcher(Collection<File> scilympiadReportDirs, File portalReportDir,
+			Collection<File> masterReports, File configurationFile, Duration quietPeriod)
+			throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		watchedDirs = new HashMap<>();
+		this.masterReports = masterReports.stream()
+			.map(file -> file.toPath().toAbsolutePath().normalize())
+			.collect(Collectors.toUnmodifiableSet());
+		this.configurationFile = (configurationFile == null)
+			? null
+			: configurationFile.toPath().toAbsolutePath().normalize();
+		this.quietPeriod = quietPeriod;
+		ownMasterReportWrites = new HashMap<>();
+
+		// The single files first, so that a report tree sharing a directory with
+		// one of them keeps its own registration:
+		if (this.configurationFile != null) {
+			register(this.configurationFile.getParent(), Input.CONFIGURATION);
+		}
+		for (Path masterReport : this.masterReports) {
+			register(masterReport.getParent(), Input.MASTER_REPORT);
+		}
+		// Both report readers search their directories recursively:
+		for (File scilympiadReportDir : scilympiadReportDirs) {
+			registerTree(scilympiadReportDir.toPath(), Input.SCILYMPIAD_ROSTERS);
+		}
+		registerTree(portalReportDir.toPath(), Input.PORTAL_REPORTS);
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Records that this program has just written the master reports, so that
+	 * the resulting file events are not mistaken for a user's edit.
+	 */
+	public void noteOwnMasterReportWrites() throws IOException {
+		ownMasterReportWrites.clear();
+		for (Path masterReport : masterReports) {
+			if (Files.isRegularFile(masterReport)) {
+				ownMasterReportWrites.put(masterReport, Files.getLastModifiedTime(masterReport));
+			}
+		}
+	}
+
+	/**
+	 * Blocks until at least one input has changed and the file system has then
+	 * been quiet for the quiet period.
+	 *
+	 * @return The inputs that changed
+	 */
+	public Set<Input> awaitChanges() throws InterruptedException, IOException {
+		Set<Input> changes = EnumSet.noneOf(Input.class);
+		WatchKey key = watchService.take();
+		for (;;) {
+			processEvents(key, changes);
+			key = watchService.poll(quietPeriod.toMillis(), TimeUnit.MILLISECONDS);
+			if (key == null) {
+				if (changes.contains(Input.MASTER_REPORT) && areOwnMasterReportWrites()) {
+					changes.remove(Input.MASTER_REPORT);
+				}
+				if (!changes.isEmpty()) {
+					return changes;
+				}
+				key = watchService.take();
+			}
+		}
+	}
+
+	private void processEvents(WatchKey key, Set<Input> changes) throws IOException {
+		var watchedDir = watchedDirs.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (watchedDir == null) {
+				continue;
+			} else if (event.kind() == OVERFLOW) {
+				changes.add(watchedDir.input());
+				continue;
+			}
+
+			Path child = watchedDir.dir().resolve((Path) event.context());
+			var fileName = child.getFileName().toString();
+			if (fileName.startsWith("~$") || fileName.startsWith(".")) {
+				// Office lock files and editors' hidden temporary files
+				continue;
+			} else if (masterReports.contains(child)) {
+				changes.add(Input.MASTER_REPORT);
+			} else if (child.equals(configurationFile)) {
+				changes.add(Input.CONFIGURATION);
+			} else if (watchedDir.input() == Input.MASTER_REPORT
+					|| watchedDir.input() == Input.CONFIGURATION) {
+				continue;	// some other file next to a watched one
+			} else {
+				if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+					registerTree(child, watchedDir.input());
+				}
+				changes.add(watchedDir.input());
+			}
+		}
+		if (!key.reset()) {
+			watchedDirs.remove(key);
+		}
+	}
+
+	private boolean areOwnMasterReportWrites() throws IOException {
+		for (Path masterReport : masterReports) {
+			var ownWrite = ownMasterReportWrites.get(masterReport);
+			var lastModified = Files.isRegularFile(masterReport)
+				? Files.getLastModifiedTime(masterReport)
+				: null;
+			if (!Objects.equals(ownWrite, lastModified)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void registerTree(Path root, Input input) throws IOException {
+		Files.createDirectories(root);
+		Set<Path> dirs;
+		try (Stream<Path> stream = Files.walk(root)) {
+			dirs = stream
+				.filter(Files::isDirectory)
+				.collect(Collectors.toSet());
+		}
+		for (Path dir : dirs) {
+			register(dir, input);
+		}
+	}
+
+	private void register(Path dir, Input input) throws IOException {
+		var key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+		watchedDirs.put(key, new WatchedDir(dir.toAbsolutePath().normalize(), input));
+	}
+}
@@ -0,0 +1,299 @@
+package org.virginiaso.roster_diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP service that answers "is this Scilympiad student in the
+ * Portal?" from an in-memory index of the latest Portal roster, for use at
+ * the registration desk.  A query's school may be given by its Scilympiad
+ * name or by its canonical Portal name.  The server has no authentication,
+ * so it listens only on loopback unless another host is configured.  The
+ * endpoints are:
+ * <ul>
+ * <li>GET /lookup?last=...&amp;first=...&amp;nick=...&amp;school=...&amp;grade=...
+ *     finds the Portal students nearest to one student
+ * <li>POST /lookup with a JSON array of students looks up each of them
+ * <li>POST /reload re-reads the latest Portal roster file and swaps in a new
+ *     index, without interrupting lookups in progress
+ * <li>GET /status describes the current index
+ * </ul>
+ */
+public class LookupServer implements AutoCloseable {
+	/** Supplies the Portal roster to index. */
+	@FunctionalInterface
+	public static interface RosterSource {
+		List<Student> load() throws IOException;
+	}
+
+	// The schools are lower case, as the distance function compares them:
+	private static record Snapshot(RosterIndex index, Set<String> schools, Instant loadedAt) {}
+
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_BAD_REQUEST = 400;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_BAD_METHOD = 405;
+	private static final int HTTP_SERVER_ERROR = 500;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final RosterSource rosterSource;
+	private final DistanceFunction distanceFunction;
+	private final int maxResults;
+	private final Gson gson;
+	private volatile Snapshot snapshot;
+
+	public static void main(String[] args) {
+		try {
+			var config = Configuration.get();
+			var server = new LookupServer(config.getLookupServerHost(),
+				config.getLookupServerPort(),
+				() -> StudentRetrieverFactory.create().readLatestReportFile(),
+				new WeightAvgDistanceFunction(), config.getLookupMaxResults());
+			Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+			System.out.format("Serving lookups of %1$d Portal students at http://%2$s:%3$d/%n",
+				server.snapshot.index().size(), config.getLookupServerHost(), server.getPort());
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/** Creates a server that listens on loopback only. */
+	public LookupServer(int port, RosterSource rosterSource, DistanceFunction distanceFunction,
+			int maxResults) throws IOException {
+		this(InetAddress.getLoopbackAddress().getHostAddress(), port, rosterSource,
+			distanceFunction, maxResults);
+	}
+
+	public LookupServer(String host, int port, RosterSource rosterSource,
+			DistanceFunction distanceFunction, int maxResults) throws IOException {
+		this.rosterSource = rosterSource;
+		this.distanceFunction = distanceFunction;
+		this.maxResults = maxResults;
+		gson = new Gson();
+		reload();
+
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/lookup", this::handleLookup);
+		server.createContext("/reload", this::handleReload);
+		server.createContext("/status", this::handleStatus);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	/** Loads the roster and atomically replaces the index that lookups use. */
+	public synchronized int reload() throws IOException {
+		var index = new RosterIndex(rosterSource.load(), distanceFunction);
+		var schools = index.getStudents().stream()
+			.map(student -> student.school().toLowerCase(Locale.ROOT))
+			.collect(Collectors.toUnmodifiableSet());
+		snapshot = new Snapshot(index, schools, Instant.now());
+		return index.size();
+	}
+
+	private void handleLookup(HttpExchange exchange) throws IOException {
+		// Take one snapshot, so that a batch is answered from a single index:
+		var current = snapshot;
+		try {
+			if ("GET".equals(exchange.getRequestMethod())) {
+				var query = parseQuery(exchange.getRequestURI().getRawQuery());
+				sendJson(exchange, HTTP_OK, lookUp(current.index(),
+					parseStudent(query::get, current)));
+			} else if ("POST".equals(exchange.getRequestMethod())) {
+				JsonArray results = new JsonArray();
+				try (
+					InputStream is = exchange.getRequestBody();
+					Reader rdr = new InputStreamReader(is, Util.CHARSET);
+				) {
+					for (JsonElement element : JsonParser.parseReader(rdr).getAsJsonArray()) {
+						var json = element.getAsJsonObject();
+						results.add(lookUp(current.index(),
+							parseStudent(name -> getField(json, name), current)));
+					}
+				}
+				sendJson(exchange, HTTP_OK, results);
+			} else {
+				sendError(exchange, HTTP_BAD_METHOD, "Use GET or POST");
+			}
+		} catch (IllegalArgumentException | IllegalStateException | JsonParseException ex) {
+			sendError(exchange, HTTP_BAD_REQUEST, ex.getMessage());
+		}
+	}
+
+	/* Returns a field of a batch entry as a string, treating a JSON null as absent */
+	private static String getField(JsonObject json, String name) {
+		var value = json.get(name);
+		if (value == null || value.isJsonNull()) {
+			return null;
+		} else if (!value.isJsonPrimitive()) {
+			throw new IllegalArgumentException(
+				"The value of '%1$s' must be a string or a number".formatted(name));
+		}
+		return value.getAsString();
+	}
+
+	private void handleReload(HttpExchange exchange) throws IOException {
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			sendError(exchange, HTTP_BAD_METHOD, "Use POST");
+			return;
+		}
+		try {
+			reload();
+			sendJson(exchange, HTTP_OK, describeSnapshot());
+		} catch (IOException | RuntimeException ex) {
+			// The previous index stays in service:
+			sendError(exchange, HTTP_SERVER_ERROR, "Reload failed: " + ex.getMessage());
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		if (!"/status".equals(exchange.getRequestURI().getPath())) {
+			sendError(exchange, HTTP_NOT_FOUND, "Not found");
+		} else {
+			sendJson(exchange, HTTP_OK, describeSnapshot());
+		}
+	}
+
+	private JsonObject lookUp(RosterIndex index, Student query) {
+		var matches = new JsonArray();
+		for (var candidate : index.findNearest(query, DifferenceEngine.DISTANCE_THRESHOLD,
+				maxResults)) {
+			var match = toJson(candidate.student());
+			match.addProperty("distance", candidate.distance());
+			matches.add(match);
+		}
+		var result = new JsonObject();
+		result.add("query", toJson(query));
+		result.addProperty("found", matches.size() > 0
+			&& matches.get(0).getAsJsonObject().get("distance").getAsInt() == 0);
+		result.add("matches", matches);
+		return result;
+	}
+
+	private JsonObject describeSnapshot() {
+		var current = snapshot;
+		var result = new JsonObject();
+		result.addProperty("students", current.index().size());
+		result.addProperty("loadedAt", current.loadedAt().toString());
+		return result;
+	}
+
+	@FunctionalInterface
+	private static interface FieldSource {
+		String get(String fieldName);
+	}
+
+	private static Student parseStudent(FieldSource fields, Snapshot current) {
+		var lastName = requireField(fields, "last");
+		var firstName = requireField(fields, "first");
+		var nickName = fields.get("nick");
+		var school = requireField(fields, "school");
+		var grade = requireField(fields, "grade");
+		try {
+			return new Student(Util.normalizeSpace(firstName), Util.normalizeSpace(lastName),
+				(nickName == null) ? "" : Util.normalizeSpace(nickName),
+				toPortalSchool(Util.normalizeSpace(school), current),
+				Integer.parseInt(grade.strip()));
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Grade '%1$s' is not a number".formatted(grade));
+		}
+	}
+
+	/*
+	 * The index holds Portal school names, so a Scilympiad school name is mapped
+	 * to its canonical name.  A name already in the roster is taken as is.
+	 */
+	private static String toPortalSchool(String school, Snapshot current) {
+		var canonicalName = SchoolName.toCanonical(school);
+		if (canonicalName != null) {
+			return canonicalName;
+		} else if (current.schools().contains(school.toLowerCase(Locale.ROOT))) {
+			return school;
+		}
+		throw new IllegalArgumentException(
+			"School '%1$s' is not mapped to a Portal school name".formatted(school));
+	}
+
+	private static String requireField(FieldSource fields, String fieldName) {
+		var value = fields.get(fieldName);
+		if (value == null || value.isBlank()) {
+			throw new IllegalArgumentException("Missing '%1$s'".formatted(fieldName));
+		}
+		return value;
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> result = new HashMap<>();
+		if (rawQuery != null) {
+			for (String pair : rawQuery.split("&")) {
+				int i = pair.indexOf('=');
+				if (i > 0) {
+					result.put(URLDecoder.decode(pair.substring(0, i), Util.CHARSET),
+						URLDecoder.decode(pair.substring(i + 1), Util.CHARSET));
+				}
+			}
+		}
+		return result;
+	}
+
+	private static JsonObject toJson(Student student) {
+		var result = new JsonObject();
+		result.addProperty("last", student.lastName());
+		result.addProperty("first", student.firstName());
+		result.addProperty("nick", student.nickName());
+		result.addProperty("school", student.school());
+		result.addProperty("grade", student.grade());
+		return result;
+	}
+
+	private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		var error = new JsonObject();
+		error.addProperty("error", message);
+		sendJson(exchange, status, error);
+	}
+
+	private void sendJson(HttpExchange exchange, int status, JsonElement json)
+			throws IOException {
+		byte[] body = gson.toJson(json).getBytes(Util.CHARSET);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+}
@@ -39,11 +39,33 @@ public class Match {
 
 	public static List<Match> parse(File masterReportFile)
 			throws IOException, ParseException {
+		return parse(masterReportFile, false);
+	}
+
+	/**
+	 * Parses every Portal row of the matches sheet, including those without a
+	 * verdict, whose verdict is then null.  The adjudication store compares
+	 * these rows with its own verdicts to find the ones that were edited.
+	 */
+	static List<Match> parseRows(File masterReportFile)
+			throws IOException, ParseException {
+		return parse(masterReportFile, true);
+	}
+
+	private static List<Match> parse(File masterReportFile, boolean includeUnadjudicated)
+			throws IOException, ParseException {
 		if (!masterReportFile.isFile()) {
 			return new ArrayList<>();
 		}
+		var event = new FlightEvents.FileParse();
+		event.begin();
 		try (InputStream is = new FileInputStream(masterReportFile)) {
-			return parse(is);
+			var result = parse(is, includeUnadjudicated);
+			event.file = masterReportFile.getPath();
+			event.records = result.size();
+			event.bytes = masterReportFile.length();
+			event.commit();
+			return result;
 		}
 	}
 
@@ -56,7 +78,12 @@ public class Match {
 
 	public static List<Match> parse(InputStream masterReportStream)
 			throws IOException, ParseException {
-		Stopwatch timer = new Stopwatch();
+		return parse(masterReportStream, false);
+	}
+
+	private static List<Match> parse(InputStream masterReportStream,
+			boolean includeUnadjudicated) throws IOException, ParseException {
+		var timer = Metrics.get().startTimer("master.report.parse");
 		try (Workbook workbook = new XSSFWorkbook(masterReportStream)) {
 			List<Match> result = new ArrayList<>();
 
@@ -81,7 +108,7 @@ public class Match {
 						school, grade);
 					Verdict verdict = Verdict.fromMasterReport(
 						getStringCellValue(row, Column.VERDICT));
-					if (verdict != null) {
+					if (verdict != null || includeUnadjudicated) {
 						result.add(new Match(currentSStudent, pStudent, verdict));
 					}
 				}
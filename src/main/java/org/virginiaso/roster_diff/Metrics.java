@@ -0,0 +1,218 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+/**
+ * A registry of named counters and latency histograms, shared by the whole
+ * run.  Timers measure with the monotonic System.nanoTime and record into the
+ * histogram of the same name, and every metric may be updated from any
+ * thread.  At the end of a run, the registry is written as JSON so that
+ * performance can be compared across runs.
+ */
+public final class Metrics {
+	/** Measures one interval, recording it into a histogram when stopped. */
+	public static final class Timer {
+		private final Histogram histogram;
+		private final long start;
+		private long elapsed;
+
+		private Timer(Histogram histogram) {
+			this.histogram = histogram;
+			start = System.nanoTime();
+			elapsed = -1;
+		}
+
+		/** Stops the timer, recording the interval the first time only. */
+		public Duration stop() {
+			if (elapsed < 0) {
+				elapsed = System.nanoTime() - start;
+				histogram.record(elapsed);
+			}
+			return Duration.ofNanos(elapsed);
+		}
+
+		public void stopAndReport(String messageFormat, Object... args) {
+			stop();
+			// Timers stop on worker threads, too, so keep off the progress line:
+			Progress.get().print("%1$s in %2$.1f seconds%n".formatted(
+				messageFormat.formatted(args), elapsed / 1e9));
+		}
+	}
+
+	/**
+	 * A histogram of nanosecond latencies.  Each power of two is split into
+	 * SUB_BUCKETS linear buckets, so that a reported percentile is within
+	 * 1/SUB_BUCKETS of the true value, in a fixed, small amount of memory.
+	 */
+	public static final class Histogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray buckets;
+		private final LongAdder count;
+		private final LongAdder total;
+		private final AtomicLong min;
+		private final AtomicLong max;
+
+		private Histogram() {
+			buckets = new AtomicLongArray(Long.SIZE * SUB_BUCKETS);
+			count = new LongAdder();
+			total = new LongAdder();
+			min = new AtomicLong(Long.MAX_VALUE);
+			max = new AtomicLong(Long.MIN_VALUE);
+		}
+
+		public void record(long nanos) {
+			long value = Math.max(0, nanos);
+			buckets.incrementAndGet(bucketIndex(value));
+			count.increment();
+			total.add(value);
+			min.accumulateAndGet(value, Math::min);
+			max.accumulateAndGet(value, Math::max);
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public Duration getTotal() {
+			return Duration.ofNanos(total.sum());
+		}
+
+		/**
+		 * Returns the value below which the given fraction of the recorded
+		 * values fall, or zero if nothing has been recorded.
+		 */
+		public Duration getPercentile(double fraction) {
+			long target = (long) Math.ceil(fraction * getCount());
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); ++i) {
+				seen += buckets.get(i);
+				if (seen > 0 && seen >= target) {
+					return Duration.ofNanos(Math.min(bucketUpperBound(i), max.get()));
+				}
+			}
+			return Duration.ZERO;
+		}
+
+		private JsonObject toJson() {
+			var json = new JsonObject();
+			long n = getCount();
+			json.addProperty("count", n);
+			json.addProperty("totalMillis", toMillis(getTotal()));
+			json.addProperty("minMillis", (n == 0) ? 0.0 : min.get() / 1e6);
+			json.addProperty("maxMillis", (n == 0) ? 0.0 : max.get() / 1e6);
+			json.addProperty("p50Millis", toMillis(getPercentile(0.50)));
+			json.addProperty("p90Millis", toMillis(getPercentile(0.90)));
+			json.addProperty("p99Millis", toMillis(getPercentile(0.99)));
+			return json;
+		}
+
+		/* Values below 2 * SUB_BUCKETS get a bucket each */
+		static int bucketIndex(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int shift = exponent - SUB_BUCKET_BITS;
+			int subBucket = (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+			return (shift + 1) * SUB_BUCKETS + subBucket;
+		}
+
+		static long bucketUpperBound(int index) {
+			if (index < 2 * SUB_BUCKETS) {
+				return index;
+			}
+			int shift = index / SUB_BUCKETS - 1;
+			long lowerBound = (1L << (shift + SUB_BUCKET_BITS))
+				+ ((long) (index % SUB_BUCKETS) << shift);
+			return lowerBound + (1L << shift) - 1;
+		}
+
+		private static double toMillis(Duration duration) {
+			return duration.toNanos() / 1e6;
+		}
+	}
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final ConcurrentMap<String, LongAdder> counters;
+	private final ConcurrentMap<String, Histogram> histograms;
+	private volatile Instant start;
+
+	public static Metrics get() {
+		return INSTANCE;
+	}
+
+	private Metrics() {
+		counters = new ConcurrentHashMap<>();
+		histograms = new ConcurrentHashMap<>();
+		start = Instant.now();
+	}
+
+	/** Discards every metric, e.g. at the start of a re-run in watch mode. */
+	public void reset() {
+		counters.clear();
+		histograms.clear();
+		start = Instant.now();
+	}
+
+	public void increment(String counterName) {
+		add(counterName, 1);
+	}
+
+	public void add(String counterName, long delta) {
+		counters.computeIfAbsent(counterName, key -> new LongAdder()).add(delta);
+	}
+
+	public long getCount(String counterName) {
+		var counter = counters.get(counterName);
+		return (counter == null) ? 0 : counter.sum();
+	}
+
+	public Histogram histogram(String name) {
+		return histograms.computeIfAbsent(name, key -> new Histogram());
+	}
+
+	public Timer startTimer(String name) {
+		return new Timer(histogram(name));
+	}
+
+	/** Returns a snapshot of every metric, with the names in sorted order. */
+	public JsonObject toJson() {
+		var json = new JsonObject();
+		json.addProperty("start", start.toString());
+		json.addProperty("end", Instant.now().toString());
+
+		var countersJson = new JsonObject();
+		new TreeMap<>(counters).forEach(
+			(name, counter) -> countersJson.addProperty(name, counter.sum()));
+		json.add("counters", countersJson);
+
+		var histogramsJson = new JsonObject();
+		new TreeMap<>(histograms).forEach(
+			(name, histogram) -> histogramsJson.add(name, histogram.toJson()));
+		json.add("timers", histogramsJson);
+		return json;
+	}
+
+	public static void writeJson(JsonObject json, File file) throws IOException {
+		try (Writer wtr = Files.newBufferedWriter(file.toPath(), Util.CHARSET)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(json, wtr);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package org.virginiaso.roster_diff;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Records the wall time, the bytes allocated, and the peak heap of each phase
+ * of a run.  A phase that runs more than once, such as the comparison of each
+ * of several sites, is recorded as one phase, with the times and allocations
+ * summed and the largest peak kept.
+ * <p>
+ * Allocation is the growth in the allocated bytes of all threads.  The JVM
+ * reports allocation only for live threads, so the worker pools of a phase
+ * must create their threads with threadFactory, whose threads add their
+ * allocation to a running total as they exit.  Where the JVM cannot report
+ * allocation, it is recorded as -1.
+ */
+public class PhaseRecorder {
+	public static record Phase(String name, Duration wallTime, long allocatedBytes,
+		long peakHeapBytes) {
+
+		private Phase merge(Phase other) {
+			return new Phase(name, wallTime.plus(other.wallTime),
+				(allocatedBytes < 0 || other.allocatedBytes < 0)
+					? -1
+					: allocatedBytes + other.allocatedBytes,
+				Math.max(peakHeapBytes, other.peakHeapBytes));
+		}
+	}
+
+	@FunctionalInterface
+	public static interface Body<T> {
+		T run() throws IOException;
+	}
+
+	// The allocation of the exited threads of threadFactory, and their IDs:
+	private static final LongAdder RETIRED_ALLOCATED_BYTES = new LongAdder();
+	private static final Set<Long> RETIRED_THREAD_IDS = ConcurrentHashMap.newKeySet();
+
+	private final Map<String, Phase> phases;
+	private final List<MemoryPoolMXBean> heapPools;
+
+	public PhaseRecorder() {
+		phases = new LinkedHashMap<>();
+		heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(pool -> pool.getType() == MemoryType.HEAP && pool.isValid())
+			.toList();
+	}
+
+	/** Runs one phase, recording its costs even if it fails. */
+	public <T> T record(String name, Body<T> body) throws IOException {
+		heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+		var event = new FlightEvents.Phase();
+		event.begin();
+		long startAllocated = getAllocatedBytes();
+		long start = System.nanoTime();
+		try {
+			return body.run();
+		} finally {
+			var wallTime = Duration.ofNanos(System.nanoTime() - start);
+			long endAllocated = getAllocatedBytes();
+			long allocated = (startAllocated < 0 || endAllocated < 0)
+				? -1
+				: endAllocated - startAllocated;
+			long peakHeap = heapPools.stream()
+				.mapToLong(pool -> pool.getPeakUsage().getUsed())
+				.sum();
+			phases.merge(name, new Phase(name, wallTime, allocated, peakHeap), Phase::merge);
+			event.phase = name;
+			event.allocatedBytes = allocated;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Returns a thread factory for a worker pool, whose threads' allocations
+	 * are counted even if they exit before the phase ends.
+	 */
+	public static ThreadFactory threadFactory(String poolName) {
+		var delegate = Executors.defaultThreadFactory();
+		var threadNumber = new AtomicInteger(0);
+		return runnable -> {
+			Thread thread = delegate.newThread(() -> {
+				try {
+					runnable.run();
+				} finally {
+					retireCurrentThread();
+				}
+			});
+			thread.setName("%1$s-%2$d".formatted(poolName, threadNumber.incrementAndGet()));
+			return thread;
+		};
+	}
+
+	private static void retireCurrentThread() {
+		if (ManagementFactory.getThreadMXBean()
+				instanceof com.sun.management.ThreadMXBean threadBean
+				&& threadBean.isThreadAllocatedMemoryEnabled()) {
+			// Add the ID first, so that the thread is never counted twice:
+			RETIRED_THREAD_IDS.add(Thread.currentThread().getId());
+			RETIRED_ALLOCATED_BYTES.add(threadBean.getCurrentThreadAllocatedBytes());
+		}
+	}
+
+	/** Prints each phase's wall time, allocation, and peak heap. */
+	public void printSummary() {
+		System.out.format("%1$-20s %2$10s %3$12s %4$12s%n", "Phase", "Seconds", "Allocated",
+			"Peak heap");
+		for (Phase phase : phases.values()) {
+			System.out.format("%1$-20s %2$10.1f %3$12s %4$12s%n", phase.name(),
+				phase.wallTime().toNanos() / 1e9, formatBytes(phase.allocatedBytes()),
+				formatBytes(phase.peakHeapBytes()));
+		}
+	}
+
+	private static String formatBytes(long bytes) {
+		return (bytes < 0)
+			? "n/a"
+			: "%1$.1f MB".formatted(bytes / (1024.0 * 1024.0));
+	}
+
+	/** Returns the recorded phases, in the order in which they first ran. */
+	public List<Phase> getPhases() {
+		return new ArrayList<>(phases.values());
+	}
+
+	/** Returns the recorded phases as a JSON array, for the run's metrics file. */
+	public JsonArray toJson() {
+		var json = new JsonArray();
+		for (Phase phase : phases.values()) {
+			var phaseJson = new JsonObject();
+			phaseJson.addProperty("name", phase.name());
+			phaseJson.addProperty("wallMillis", phase.wallTime().toNanos() / 1e6);
+			phaseJson.addProperty("allocatedBytes", phase.allocatedBytes());
+			phaseJson.addProperty("peakHeapBytes", phase.peakHeapBytes());
+			json.add(phaseJson);
+		}
+		return json;
+	}
+
+	private static long getAllocatedBytes() {
+		if (!(ManagementFactory.getThreadMXBean()
+				instanceof com.sun.management.ThreadMXBean threadBean)
+				|| !threadBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		// Read the retired total first, so that a thread retiring during the
+		// sum is counted at most once, if late:
+		long total = RETIRED_ALLOCATED_BYTES.sum();
+		long[] threadIds = threadBean.getAllThreadIds();
+		long[] allocations = threadBean.getThreadAllocatedBytes(threadIds);
+		for (int i = 0; i < threadIds.length; ++i) {
+			if (allocations[i] > 0 && !RETIRED_THREAD_IDS.contains(threadIds[i])) {
+				total += allocations[i];
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,204 @@
+package org.virginiaso.roster_diff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Sends all Portal HTTP requests for a run.  Transient failures (connection
+ * errors, HTTP 429 and 5xx) are retried with exponential backoff and jitter,
+ * the server's rate-limit headers are honored, and the total number of
+ * requests per run is capped.  Retries and waiting time are counted so that
+ * slow downloads can be diagnosed.  Create one scheduler per retrieval run,
+ * and share it among that run's retrievers, so that the budget and the
+ * statistics cover the whole run.
+ */
+public class PortalRequestScheduler {
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_SERVER_ERROR = 500;
+	// Values larger than this in a reset header are epoch seconds, not a delay:
+	private static final long EPOCH_SECONDS_CUTOFF = 1_000_000_000L;
+
+	private final int maxAttempts;
+	private final Duration baseDelay;
+	private final Duration maxDelay;
+	private final int requestBudget;
+
+	private int requestsSent;
+	private int retries;
+	private Duration timeWaited;
+	private Instant notBefore;
+	// Created on first use, because most retrievers only read saved reports:
+	private HttpClient client;
+
+	public PortalRequestScheduler(Configuration config) {
+		maxAttempts = config.getPortalRetryMaxAttempts();
+		baseDelay = config.getPortalRetryBaseDelay();
+		maxDelay = config.getPortalRetryMaxDelay();
+		requestBudget = config.getPortalRequestBudget();
+
+		requestsSent = 0;
+		retries = 0;
+		timeWaited = Duration.ZERO;
+		notBefore = Instant.MIN;
+		client = null;
+	}
+
+	/**
+	 * Sends a request, retrying transient failures.  The request supplier is
+	 * invoked once per attempt, so that it can pick up a fresh session token.
+	 * Responses with other (non-transient) status codes are returned to the
+	 * caller unchanged.
+	 */
+	public synchronized <T> HttpResponse<T> send(Supplier<HttpRequest> requestSupplier,
+			BodyHandler<T> bodyHandler) throws IOException {
+		for (int attempt = 1;; ++attempt) {
+			waitUntil(notBefore);
+			if (requestsSent >= requestBudget) {
+				throw new IOException(
+					"Portal request budget of %1$d requests per run is exhausted"
+						.formatted(requestBudget));
+			}
+			++requestsSent;
+
+			HttpResponse<T> response;
+			try {
+				response = getClient().sendAsync(requestSupplier.get(), bodyHandler).join();
+			} catch (CompletionException ex) {
+				if (attempt >= maxAttempts) {
+					throw (ex.getCause() instanceof IOException ioEx)
+						? ioEx
+						: new IOException(ex.getCause());
+				}
+				++retries;
+				waitUntil(Instant.now().plus(computeBackoff(attempt)));
+				continue;
+			}
+
+			var rateLimitReset = getRateLimitReset(response.headers());
+			if (!isTransientFailure(response.statusCode()) || attempt >= maxAttempts) {
+				if (rateLimitReset != null) {
+					notBefore = rateLimitReset;
+				}
+				return response;
+			}
+
+			if (response.body() instanceof InputStream is) {
+				is.close();
+			}
+			++retries;
+			var retryAfter = getRetryAfter(response.headers());
+			var backoffEnd = Instant.now().plus(computeBackoff(attempt));
+			notBefore = latest(backoffEnd, retryAfter, rateLimitReset);
+		}
+	}
+
+	public synchronized int getRequestsSent() {
+		return requestsSent;
+	}
+
+	public synchronized int getRetries() {
+		return retries;
+	}
+
+	public synchronized Duration getTimeWaited() {
+		return timeWaited;
+	}
+
+	public synchronized String formatStatistics() {
+		return "%1$d Portal requests, %2$d retries, %3$.1f seconds waiting".formatted(
+			requestsSent, retries, timeWaited.toMillis() / 1000.0);
+	}
+
+	private static boolean isTransientFailure(int statusCode) {
+		return statusCode == HTTP_TOO_MANY_REQUESTS || statusCode >= HTTP_SERVER_ERROR;
+	}
+
+	/* Exponential backoff with "full jitter" */
+	private Duration computeBackoff(int attempt) {
+		long ceiling = Math.min(maxDelay.toMillis(),
+			baseDelay.toMillis() << Math.min(attempt - 1, 20));
+		return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+	}
+
+	/* Parses a Retry-After header, which is either a delay in seconds or an HTTP-date */
+	private static Instant getRetryAfter(HttpHeaders headers) {
+		var value = headers.firstValue("Retry-After").map(String::strip).orElse(null);
+		if (value == null || value.isEmpty()) {
+			return null;
+		}
+		try {
+			return Instant.now().plusSeconds(Long.parseLong(value));
+		} catch (NumberFormatException ex) {
+			try {
+				return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			} catch (DateTimeParseException ex2) {
+				return null;
+			}
+		}
+	}
+
+	/*
+	 * If the rate-limit headers say that no requests remain in the current window,
+	 * returns the time when the window resets.  Otherwise, returns null.
+	 */
+	private static Instant getRateLimitReset(HttpHeaders headers) {
+		var remaining = headers.firstValue("X-RateLimit-Remaining").map(String::strip);
+		var reset = headers.firstValue("X-RateLimit-Reset").map(String::strip);
+		if (remaining.isEmpty() || reset.isEmpty() || !"0".equals(remaining.get())) {
+			return null;
+		}
+		try {
+			long resetValue = Long.parseLong(reset.get());
+			return (resetValue > EPOCH_SECONDS_CUTOFF)
+				? Instant.ofEpochSecond(resetValue)
+				: Instant.now().plusSeconds(resetValue);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	private static Instant latest(Instant first, Instant... others) {
+		Instant result = first;
+		for (Instant other : others) {
+			if (other != null && other.isAfter(result)) {
+				result = other;
+			}
+		}
+		return result;
+	}
+
+	private void waitUntil(Instant time) throws InterruptedIOException {
+		var delay = Duration.between(Instant.now(), time);
+		if (delay.isNegative() || delay.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(delay.toMillis());
+			timeWaited = timeWaited.plus(delay);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry a Portal request");
+		}
+	}
+
+	private HttpClient getClient() {
+		if (client == null) {
+			client = HttpClient.newHttpClient();
+		}
+		return client;
+	}
+}
@@ -14,10 +14,10 @@ import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.lang.reflect.Type;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
@@ -61,17 +61,21 @@ public class PortalRetriever<Item> {
 	}
 
 	private static final String JSON_MEDIA_TYPE = "application/json";
-	private static final String TOKEN_URL = "https://api.knack.com/v1/applications/%1$s/session";
+	private static final String TOKEN_URL = "%1$s/applications/%2$s/session";
 	private static final String TOKEN_BODY = "{\"email\":\"%1$s\",\"password\":\"%2$s\"}";
-	private static final String REPORT_URL = "https://api.knack.com/v1/pages/scene_%1$s/"
-		+ "views/view_%2$s/records?format=raw&page=%3$d&rows_per_page=%4$d";
+	private static final String REPORT_URL = "%1$s/pages/scene_%2$s/"
+		+ "views/view_%3$s/records?format=raw&page=%4$d&rows_per_page=%5$d";
 	private static final int PAGE_SIZE = 100;
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_UNAUTHORIZED = 401;
 
 	// From the configuration file:
+	private final String apiUrl;
 	private final File reportDir;
 	private final String user;
 	private final String password;
 	private final String applicationId;
+	private final PortalTokenCache tokenCache;
 
 	// From the factory:
 	private final Type reportResponseType;
@@ -83,21 +87,28 @@ public class PortalRetriever<Item> {
 	private final String view;
 
 	// Computed here:
-	private final HttpClient client;
+	private final PortalRequestScheduler scheduler;
 	private String userToken;
 	private int totalPages;
 	private int lastPageRead;	// 1-based
 	private List<Item> reportItems;
 
 	public PortalRetriever(Gson gson, String reportName, Type reportResponseType) {
-		var props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		var appName = props.getProperty("portal.application.name");
-		reportDir = Util.parseFileArgument(props, "portal.report.dir");
-		user = props.getProperty("portal.user");
-		password = props.getProperty("portal.password");
-		applicationId = props.getProperty("portal.%1$s.application.id".formatted(appName));
-		scene = props.getProperty("portal.%1$s.%2$s.scene".formatted(appName, reportName));
-		view = props.getProperty("portal.%1$s.%2$s.view".formatted(appName, reportName));
+		this(Configuration.get(), new PortalRequestScheduler(Configuration.get()), gson,
+			reportName, reportResponseType);
+	}
+
+	PortalRetriever(Configuration config, PortalRequestScheduler scheduler, Gson gson,
+			String reportName, Type reportResponseType) {
+		apiUrl = config.getPortalApiUrl();
+		reportDir = config.getPortalReportDir();
+		user = config.getPortalUser();
+		password = config.getPortalPassword();
+		applicationId = config.getPortalApplicationId();
+		scene = config.getPortalView(reportName).scene();
+		view = config.getPortalView(reportName).view();
+		tokenCache = PortalTokenCache.getInstance(config.getPortalTokenFile(),
+			config.getPortalTokenLifetime());
 
 		this.reportResponseType = reportResponseType;
 		this.gson = gson;
@@ -105,38 +116,35 @@ public class PortalRetriever<Item> {
 		fileNameFormat = reportName + "-%1$tFT%1$tT.json";
 		fileNamePattern = Pattern.compile(reportName + "-.*\\.json");
 
-		client = HttpClient.newHttpClient();
+		this.scheduler = scheduler;
 		userToken = null;
 		totalPages = -1;
 		lastPageRead = -1;
 		reportItems = new ArrayList<>();
 	}
 
-	private static class StringHolder {
-		public String string = null;
-	}
 	public void saveRawReport() throws IOException {
-		getUserToken();
-		System.out.format("Found usr token '%1$s'%n", userToken);
-
-		var httpRequest = getHttpRequest(1);
-		var stringHolder = new StringHolder();
-		client.sendAsync(httpRequest, BodyHandlers.ofString())
-			.thenApply(HttpResponse::body)
-			.thenAccept(body -> stringHolder.string = body)
-			.join();
+		var body = sendReportRequest(1, BodyHandlers.ofString()).body();
 
 		var fileName = "raw-portal-%1$s-report-body.json".formatted(reportName);
 		try (var pw = new PrintWriter(fileName, Util.CHARSET)) {
-			pw.print(stringHolder.string);
+			pw.print(body);
 		}
 	}
 
 	public void saveReport() throws IOException {
 		retrieveReport();
-		var reportFile = new File(reportDir, fileNameFormat.formatted(LocalDateTime.now()));
-		if (!reportDir.exists()) {
-			reportDir.mkdirs();
+		writeReport(reportItems, reportDir, LocalDateTime.now());
+	}
+
+	/**
+	 * Writes items in the layout of a retrieved report, so that
+	 * readLatestReportFile will find them.  Used to save synthetic test data.
+	 */
+	void writeReport(List<Item> items, File dir, LocalDateTime timestamp) throws IOException {
+		var reportFile = new File(dir, fileNameFormat.formatted(timestamp));
+		if (!dir.exists()) {
+			dir.mkdirs();
 		}
 		try (
 			OutputStream os = new FileOutputStream(reportFile);
@@ -144,27 +152,74 @@ public class PortalRetriever<Item> {
 			JsonWriter jwtr = new JsonWriter(wtr);
 		) {
 			jwtr.setIndent("\t");
-			gson.toJson(new ReportResponse<Item>(reportItems), reportResponseType, jwtr);
+			gson.toJson(new ReportResponse<Item>(items), reportResponseType, jwtr);
 		}
 	}
 
+	/*
+	 * Retrieves the pages not yet read.  If a previous call failed partway
+	 * through, this resumes at the failed page rather than starting over.
+	 */
 	private void retrieveReport() throws IOException {
-		getUserToken();
-		System.out.format("Found usr token '%1$s'%n", userToken);
-		for (int currentPage = 1;; ++currentPage) {
-			var httpRequest = getHttpRequest(currentPage);
-			client.sendAsync(httpRequest, BodyHandlers.ofInputStream())
-				.thenApply(HttpResponse::body)
-				.thenAccept(is -> reportItems.addAll(readJsonReport(is, this)))
-				.join();
-			if (lastPageRead >= totalPages) {
-				break;
+		if (lastPageRead > 0 && lastPageRead >= totalPages) {
+			return;
+		}
+		try {
+			for (int currentPage = Math.max(lastPageRead, 0) + 1;; ++currentPage) {
+				var pageTimer = Metrics.get().startTimer("portal.page.fetch");
+				var event = new FlightEvents.PortalPageFetch();
+				event.begin();
+				var is = sendReportRequest(currentPage, BodyHandlers.ofInputStream()).body();
+				var pageItems = readJsonReport(is, this);
+				reportItems.addAll(pageItems);
+				pageTimer.stop();
+				event.report = reportName;
+				event.page = currentPage;
+				event.records = pageItems.size();
+				event.commit();
+				Metrics.get().increment("portal.pages.fetched");
+				if (lastPageRead >= totalPages) {
+					break;
+				}
 			}
+		} finally {
+			System.out.format("Retrieved %1$d of %2$d pages of the Portal %3$s report (%4$s)%n",
+				Math.max(lastPageRead, 0), Math.max(totalPages, 0), reportName,
+				scheduler.formatStatistics());
+		}
+	}
+
+	/*
+	 * Sends the request for one page of the report.  If the Portal rejects the
+	 * (possibly cached) session token, discards it, logs in again, and retries.
+	 */
+	private <T> HttpResponse<T> sendReportRequest(int currentPage,
+			BodyHandler<T> bodyHandler) throws IOException {
+		getUserToken();
+		var response = scheduler.send(() -> getHttpRequest(currentPage), bodyHandler);
+		if (response.statusCode() == HTTP_UNAUTHORIZED) {
+			discardBody(response);
+			tokenCache.invalidate(applicationId, user, userToken);
+			userToken = null;
+			getUserToken();
+			response = scheduler.send(() -> getHttpRequest(currentPage), bodyHandler);
+		}
+		if (response.statusCode() != HTTP_OK) {
+			discardBody(response);
+			throw new IOException("Portal request for %1$s page %2$d failed with HTTP status %3$d"
+				.formatted(reportName, currentPage, response.statusCode()));
+		}
+		return response;
+	}
+
+	private static void discardBody(HttpResponse<?> response) throws IOException {
+		if (response.body() instanceof InputStream is) {
+			is.close();
 		}
 	}
 
 	private HttpRequest getHttpRequest(int currentPage) {
-		var url = REPORT_URL.formatted(scene, view, currentPage, PAGE_SIZE);
+		var url = REPORT_URL.formatted(apiUrl, scene, view, currentPage, PAGE_SIZE);
 		return HttpRequest.newBuilder(URI.create(url))
 			.GET()
 			.header("Accept", JSON_MEDIA_TYPE)
@@ -175,23 +230,26 @@ public class PortalRetriever<Item> {
 
 	private void getUserToken() throws IOException {
 		if (userToken == null || userToken.isBlank()) {
-			var url = TOKEN_URL.formatted(applicationId);
-			var requestBody = TOKEN_BODY.formatted(user, password);
-			var httpRequest = HttpRequest.newBuilder(URI.create(url))
-				.POST(BodyPublishers.ofString(requestBody))
-				.header("Content-Type", JSON_MEDIA_TYPE)
-				.build();
-			client.sendAsync(httpRequest, BodyHandlers.ofString())
-				.thenApply(HttpResponse::body)
-				.thenAccept(this::setUserToken)
-				.join();
+			userToken = tokenCache.getToken(applicationId, user, this::logIn);
 		}
 	}
 
-	private void setUserToken(String jsonResponseBody) {
+	private String logIn() throws IOException {
+		var url = TOKEN_URL.formatted(apiUrl, applicationId);
+		var requestBody = TOKEN_BODY.formatted(user, password);
+		var httpRequest = HttpRequest.newBuilder(URI.create(url))
+			.POST(BodyPublishers.ofString(requestBody))
+			.header("Content-Type", JSON_MEDIA_TYPE)
+			.build();
+		var token = parseUserToken(scheduler.send(() -> httpRequest, BodyHandlers.ofString()).body());
+		System.out.format("Logged in to the Portal as %1$s%n", user);
+		return token;
+	}
+
+	private static String parseUserToken(String jsonResponseBody) {
 		JsonObject response = JsonParser.parseString(jsonResponseBody).getAsJsonObject();
 		if (response.get("session") != null) {
-			userToken = response
+			return response
 				.get("session").getAsJsonObject()
 				.get("user").getAsJsonObject()
 				.get("token").getAsString();
@@ -210,7 +268,7 @@ public class PortalRetriever<Item> {
 	}
 
 	public List<Item> readLatestReportFile() throws IOException {
-		Stopwatch timer = new Stopwatch();
+		var timer = Metrics.get().startTimer("portal.%1$s.read".formatted(reportName));
 		File reportFile;
 		try (Stream<Path> stream = Files.find(reportDir.toPath(), Integer.MAX_VALUE,
 			this::matcher, FileVisitOption.FOLLOW_LINKS)) {
@@ -224,8 +282,14 @@ public class PortalRetriever<Item> {
 			return List.of();
 		}
 
+		var event = new FlightEvents.FileParse();
+		event.begin();
 		try (InputStream is = new FileInputStream(reportFile)) {
 			List<Item> items = readJsonReport(is, (PortalRetriever<Item>) null);
+			event.file = reportFile.getPath();
+			event.records = items.size();
+			event.bytes = reportFile.length();
+			event.commit();
 			timer.stopAndReport("Parsed Portal %1$s file".formatted(reportName));
 			return items;
 		}
@@ -251,8 +315,12 @@ public class PortalRetriever<Item> {
 
 	public static void main(String [] args) {
 		try {
-			PortalRetriever<Student> rosterRetriever = StudentRetrieverFactory.create();
-			PortalRetriever<Coach> coachRetriever = CoachRetrieverFactory.create();
+			// One scheduler for the run, so that its budget covers both reports:
+			var config = Configuration.get();
+			var scheduler = new PortalRequestScheduler(config);
+			PortalRetriever<Student> rosterRetriever = StudentRetrieverFactory.create(config,
+				scheduler);
+			PortalRetriever<Coach> coachRetriever = CoachRetrieverFactory.create(config, scheduler);
 
 			//rosterRetriever.saveRawReport();
 			//coachRetriever.saveRawReport();
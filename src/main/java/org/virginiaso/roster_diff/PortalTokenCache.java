@@ -0,0 +1,199 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Caches Portal (Knack) session tokens so that they can be shared by all
+ * PortalRetriever instances in a run, and reused by later runs until they
+ * expire.  The cache is persisted to a file that only the owner can read.
+ */
+public class PortalTokenCache {
+	@FunctionalInterface
+	public static interface TokenSource {
+		String logIn() throws IOException;
+	}
+
+	private static class CachedToken {
+		public final String token;
+		public final Instant expiration;
+
+		public CachedToken(String token, Instant expiration) {
+			this.token = token;
+			this.expiration = expiration;
+		}
+	}
+
+	private static final String TOKEN_SUFFIX = ".token";
+	private static final String EXPIRATION_SUFFIX = ".expiration";
+	// Refresh a little early so that a token does not expire mid-download:
+	private static final Duration EXPIRATION_MARGIN = Duration.ofMinutes(5);
+	private static final Map<File, PortalTokenCache> INSTANCES = new HashMap<>();
+
+	private final File cacheFile;
+	private final Duration lifetime;
+	private final Map<String, CachedToken> tokens;
+
+	public static synchronized PortalTokenCache getInstance(File cacheFile, Duration lifetime) {
+		return INSTANCES.computeIfAbsent(cacheFile.getAbsoluteFile(),
+			key -> new PortalTokenCache(key, lifetime));
+	}
+
+	private PortalTokenCache(File cacheFile, Duration lifetime) {
+		this.cacheFile = cacheFile;
+		this.lifetime = lifetime;
+		tokens = new HashMap<>();
+		load();
+	}
+
+	/**
+	 * Returns a cached, unexpired token for the given application and user.  If
+	 * there is none, logs in via tokenSource and caches the resulting token.
+	 */
+	public synchronized String getToken(String applicationId, String user,
+			TokenSource tokenSource) throws IOException {
+		var key = getKey(applicationId, user);
+		var cachedToken = tokens.get(key);
+		if (cachedToken != null
+			&& Instant.now().plus(EXPIRATION_MARGIN).isBefore(cachedToken.expiration)) {
+			return cachedToken.token;
+		}
+
+		var token = tokenSource.logIn();
+		tokens.put(key, new CachedToken(token, computeExpiration(token)));
+		save();
+		return token;
+	}
+
+	/**
+	 * Discards the given token, e.g., because the Portal has rejected it.  Does
+	 * nothing if another retriever has already replaced it with a fresh token.
+	 */
+	public synchronized void invalidate(String applicationId, String user, String token) {
+		var key = getKey(applicationId, user);
+		var cachedToken = tokens.get(key);
+		if (cachedToken != null && cachedToken.token.equals(token)) {
+			tokens.remove(key);
+			save();
+		}
+	}
+
+	private static String getKey(String applicationId, String user) {
+		return "%1$s|%2$s".formatted(applicationId, user);
+	}
+
+	/*
+	 * Knack tokens are JWTs.  If the token carries an expiration claim, use it.
+	 * Otherwise, assume the configured lifetime starting from the issued-at claim
+	 * (or from now, if that is missing too).
+	 */
+	private Instant computeExpiration(String token) {
+		try {
+			String[] pieces = token.split("\\.");
+			if (pieces.length >= 2) {
+				var payload = new String(Base64.getUrlDecoder().decode(pieces[1]), Util.CHARSET);
+				JsonObject claims = JsonParser.parseString(payload).getAsJsonObject();
+				if (claims.has("exp")) {
+					return Instant.ofEpochSecond(claims.get("exp").getAsLong());
+				} else if (claims.has("iat")) {
+					return Instant.ofEpochSecond(claims.get("iat").getAsLong()).plus(lifetime);
+				}
+			}
+		} catch (RuntimeException ex) {
+			// Not a JWT we understand -- fall through to the default
+		}
+		return Instant.now().plus(lifetime);
+	}
+
+	private void load() {
+		if (!cacheFile.isFile()) {
+			return;
+		}
+		var props = new Properties();
+		try (
+			InputStream is = Files.newInputStream(cacheFile.toPath());
+			Reader rdr = new InputStreamReader(is, Util.CHARSET);
+		) {
+			props.load(rdr);
+		} catch (IOException ex) {
+			System.out.format("WARNING: Unable to read Portal token cache '%1$s': %2$s%n",
+				cacheFile.getPath(), ex.getMessage());
+			return;
+		}
+		props.stringPropertyNames().stream()
+			.filter(name -> name.endsWith(TOKEN_SUFFIX))
+			.map(name -> name.substring(0, name.length() - TOKEN_SUFFIX.length()))
+			.forEach(key -> {
+				var token = props.getProperty(key + TOKEN_SUFFIX);
+				var expiration = props.getProperty(key + EXPIRATION_SUFFIX);
+				if (token != null && !token.isBlank() && expiration != null) {
+					try {
+						tokens.put(key, new CachedToken(token, Instant.parse(expiration)));
+					} catch (RuntimeException ex) {
+						// Skip the malformed entry
+					}
+				}
+			});
+	}
+
+	private void save() {
+		var props = new Properties();
+		tokens.forEach((key, cachedToken) -> {
+			props.setProperty(key + TOKEN_SUFFIX, cachedToken.token);
+			props.setProperty(key + EXPIRATION_SUFFIX, cachedToken.expiration.toString());
+		});
+
+		// Write to an owner-only temporary file, then move it into place:
+		try {
+			var dir = cacheFile.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			Path tmpFile = createPrivateFile(dir.toPath());
+			try (
+				OutputStream os = Files.newOutputStream(tmpFile);
+				Writer wtr = new OutputStreamWriter(os, Util.CHARSET);
+			) {
+				props.store(wtr, "Portal session tokens -- do not share");
+			}
+			Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private Path createPrivateFile(Path dir) throws IOException {
+		var prefix = Util.getStem(cacheFile);
+		try {
+			return Files.createTempFile(dir, prefix, ".tmp",
+				PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException ex) {
+			// Not a POSIX file system (e.g., Windows):
+			File file = Files.createTempFile(dir, prefix, ".tmp").toFile();
+			file.setReadable(false, false);
+			file.setReadable(true, true);
+			file.setWritable(false, false);
+			file.setWritable(true, true);
+			return file.toPath();
+		}
+	}
+}
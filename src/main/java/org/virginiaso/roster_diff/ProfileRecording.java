@@ -0,0 +1,50 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import jdk.jfr.Recording;
+
+/**
+ * A JDK Flight Recorder recording of one run, with the JDK's "profile" settings
+ * (which sample CPU and allocation) plus every event in FlightEvents.  It is
+ * dumped into the report directory, where JDK Mission Control can open it.
+ */
+public class ProfileRecording implements AutoCloseable {
+	static final String FILE_NAME = "profile.jfr";
+
+	private final Recording recording;
+
+	public ProfileRecording() {
+		jdk.jfr.Configuration settings;
+		try {
+			settings = jdk.jfr.Configuration.getConfiguration("profile");
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} catch (java.text.ParseException ex) {
+			throw new IllegalStateException("The JDK's profile settings are malformed", ex);
+		}
+		recording = new Recording(settings);
+		recording.setName("roster-diff");
+		recording.enable(FlightEvents.Phase.class);
+		recording.enable(FlightEvents.FileParse.class);
+		recording.enable(FlightEvents.CompareChunk.class);
+		recording.enable(FlightEvents.PortalPageFetch.class);
+		recording.enable(FlightEvents.ReportWrite.class);
+		recording.enable(FlightEvents.EmailSend.class);
+		recording.start();
+	}
+
+	/** Writes everything recorded so far into the given directory. */
+	public void dumpInto(File dir) throws IOException {
+		File file = new File(dir, FILE_NAME);
+		recording.dump(file.toPath());
+		System.out.format("Wrote the flight recording to '%1$s'%n", file.getPath());
+	}
+
+	@Override
+	public void close() {
+		recording.close();
+	}
+}
@@ -0,0 +1,251 @@
+package org.virginiaso.roster_diff;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Tracks the progress of the long stages of a run:  the pairs compared by the
+ * difference engines, the schools reported, and the emails sent.  The counts
+ * are published as a platform MBean, and when the output is a terminal they
+ * are also shown on a single console line, redrawn at most a few times a
+ * second.  Every method may be called from any thread.
+ */
+public final class Progress implements ProgressMBean {
+	public static enum Stage {
+		IDLE,
+		COMPARING,
+		REPORTING,
+		EMAILING
+	}
+
+	static final String OBJECT_NAME = "org.virginiaso.roster_diff:type=Progress";
+	private static final long REDRAW_INTERVAL_NANOS = 250_000_000L;
+
+	private static final Progress INSTANCE = new Progress();
+
+	private final AtomicLong pairsCompared;
+	private final AtomicLong pairsTotal;
+	private final AtomicInteger schoolsReported;
+	private final AtomicInteger schoolsTotal;
+	private final AtomicInteger emailsSent;
+	private final AtomicInteger emailsTotal;
+	private final boolean showOnConsole;
+	private final AtomicLong lastRedraw;
+	private volatile Stage stage;
+	private volatile long stageStart;
+	private int lineLength;	// guarded by this
+
+	public static Progress get() {
+		return INSTANCE;
+	}
+
+	private Progress() {
+		pairsCompared = new AtomicLong();
+		pairsTotal = new AtomicLong();
+		schoolsReported = new AtomicInteger();
+		schoolsTotal = new AtomicInteger();
+		emailsSent = new AtomicInteger();
+		emailsTotal = new AtomicInteger();
+		showOnConsole = (System.console() != null);
+		lastRedraw = new AtomicLong(System.nanoTime() - REDRAW_INTERVAL_NANOS);
+		stage = Stage.IDLE;
+		stageStart = System.nanoTime();
+		lineLength = 0;
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName(OBJECT_NAME));
+		} catch (JMException ex) {
+			System.out.format("Unable to register the progress MBean (%1$s)%n", ex.getMessage());
+		}
+	}
+
+	/** Zeroes every count, e.g. at the start of a re-run in watch mode. */
+	public void reset() {
+		endStage();
+		pairsCompared.set(0);
+		pairsTotal.set(0);
+		schoolsReported.set(0);
+		schoolsTotal.set(0);
+		emailsSent.set(0);
+		emailsTotal.set(0);
+	}
+
+	/**
+	 * Adds a comparison of the given number of pairs.  Concurrent comparisons
+	 * (one per site) add up to one stage.
+	 */
+	public void startComparison(long numPairs) {
+		enterStage(Stage.COMPARING);
+		pairsTotal.addAndGet(numPairs);
+		redraw();
+	}
+
+	public void pairsCompared(long numPairs) {
+		pairsCompared.addAndGet(numPairs);
+		redraw();
+	}
+
+	public void startReporting(int numSchools) {
+		enterStage(Stage.REPORTING);
+		schoolsTotal.addAndGet(numSchools);
+		redraw();
+	}
+
+	public void schoolReported() {
+		schoolsReported.incrementAndGet();
+		redraw();
+	}
+
+	public void startEmailing(int numEmails) {
+		enterStage(Stage.EMAILING);
+		emailsTotal.addAndGet(numEmails);
+		redraw();
+	}
+
+	public void emailSent() {
+		emailsSent.incrementAndGet();
+		redraw();
+	}
+
+	/** Ends the current stage, erasing its console line. */
+	public void endStage() {
+		stage = Stage.IDLE;
+		clearLine();
+	}
+
+	/**
+	 * Prints text to the console without garbling the progress line, which is
+	 * redrawn below the text on the next update.
+	 */
+	public void print(CharSequence text) {
+		synchronized (this) {
+			clearLine();
+			System.out.print(text);
+			System.out.flush();
+		}
+	}
+
+	@Override
+	public String getStage() {
+		return stage.name();
+	}
+
+	@Override
+	public long getPairsCompared() {
+		return pairsCompared.get();
+	}
+
+	@Override
+	public long getPairsTotal() {
+		return pairsTotal.get();
+	}
+
+	@Override
+	public int getSchoolsReported() {
+		return schoolsReported.get();
+	}
+
+	@Override
+	public int getSchoolsTotal() {
+		return schoolsTotal.get();
+	}
+
+	@Override
+	public int getEmailsSent() {
+		return emailsSent.get();
+	}
+
+	@Override
+	public int getEmailsTotal() {
+		return emailsTotal.get();
+	}
+
+	@Override
+	public double getThroughputPerSecond() {
+		double seconds = (System.nanoTime() - stageStart) / 1e9;
+		return (seconds <= 0) ? 0.0 : getDone(stage) / seconds;
+	}
+
+	@Override
+	public long getEtaSeconds() {
+		var currentStage = stage;
+		double throughput = getThroughputPerSecond();
+		if (currentStage == Stage.IDLE || throughput <= 0) {
+			return -1;
+		}
+		return Math.round(Math.max(0, getTotal(currentStage) - getDone(currentStage))
+			/ throughput);
+	}
+
+	private void enterStage(Stage newStage) {
+		if (stage != newStage) {
+			stage = newStage;
+			stageStart = System.nanoTime();
+		}
+	}
+
+	private long getDone(Stage s) {
+		return switch (s) {
+			case COMPARING -> pairsCompared.get();
+			case REPORTING -> schoolsReported.get();
+			case EMAILING -> emailsSent.get();
+			case IDLE -> 0;
+		};
+	}
+
+	private long getTotal(Stage s) {
+		return switch (s) {
+			case COMPARING -> pairsTotal.get();
+			case REPORTING -> schoolsTotal.get();
+			case EMAILING -> emailsTotal.get();
+			case IDLE -> 0;
+		};
+	}
+
+	/* Redraws the console line, unless it was redrawn very recently */
+	private void redraw() {
+		if (!showOnConsole) {
+			return;
+		}
+		long now = System.nanoTime();
+		long last = lastRedraw.get();
+		if (now - last < REDRAW_INTERVAL_NANOS || !lastRedraw.compareAndSet(last, now)) {
+			return;
+		}
+		var currentStage = stage;
+		if (currentStage == Stage.IDLE) {
+			return;
+		}
+		String unit = switch (currentStage) {
+			case COMPARING -> "pairs";
+			case REPORTING -> "schools";
+			case EMAILING -> "emails";
+			case IDLE -> "";
+		};
+		long done = getDone(currentStage);
+		long total = getTotal(currentStage);
+		long eta = getEtaSeconds();
+		String line = "%1$s: %2$,d of %3$,d %4$s (%5$.1f%%), %6$,.0f/s, ETA %7$s".formatted(
+			currentStage, done, total, unit, (total == 0) ? 0.0 : 100.0 * done / total,
+			getThroughputPerSecond(),
+			(eta < 0) ? "--:--" : "%1$d:%2$02d".formatted(eta / 60, eta % 60));
+		synchronized (this) {
+			System.out.print("\r" + line + " ".repeat(Math.max(0, lineLength - line.length())));
+			System.out.flush();
+			lineLength = line.length();
+		}
+	}
+
+	private synchronized void clearLine() {
+		if (lineLength > 0) {
+			System.out.print("\r" + " ".repeat(lineLength) + "\r");
+			System.out.flush();
+			lineLength = 0;
+		}
+	}
+}
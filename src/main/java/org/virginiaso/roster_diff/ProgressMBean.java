@@ -0,0 +1,28 @@
+package org.virginiaso.roster_diff;
+
+/**
+ * The JMX view of a run's progress, registered as
+ * org.virginiaso.roster_diff:type=Progress so that JConsole can watch it.
+ */
+public interface ProgressMBean {
+	/** Returns the stage in progress, e.g. COMPARING or EMAILING. */
+	String getStage();
+
+	long getPairsCompared();
+
+	long getPairsTotal();
+
+	int getSchoolsReported();
+
+	int getSchoolsTotal();
+
+	int getEmailsSent();
+
+	int getEmailsTotal();
+
+	/** Returns the units of the current stage completed per second. */
+	double getThroughputPerSecond();
+
+	/** Returns the estimated seconds left in the current stage, or -1 if unknown. */
+	long getEtaSeconds();
+}
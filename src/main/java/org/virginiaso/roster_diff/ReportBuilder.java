@@ -9,13 +9,20 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.CellStyle;
@@ -30,34 +37,38 @@ import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.CellRangeAddressList;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbookType;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 
 public class ReportBuilder {
 	private static final String P_NOT_S_SHEET_TITLE = "In Portal, not Scilympiad";
 	private static final String S_NOT_P_SHEET_TITLE = "In Scilympiad, not Portal";
 	static final String MATCHES_SHEET_TITLE = "Adjudicated Matches";
+	static final String DUPLICATES_SHEET_TITLE = "Possible Duplicates";
 	static final String SCILYMPIAD_ROW_LABEL = "Scilympiad:";
 	static final String PORTAL_ROW_LABEL = "Portal:";
 	private static final int VERDICT_COLUMN_NUMBER = 7;
+	// Number of rows the streaming workbook keeps in memory before flushing:
+	private static final int ROW_WINDOW_SIZE = 200;
+	private static final int MAX_COLUMN_WIDTH_CHARS = 100;
+	private static final int COLUMN_WIDTH_PADDING_CHARS = 2;
 	private static final String[] VERDICT_COLUMN_VALUES = {"—", "Different", "Same"};
 	private static final String EMAIL_SUBJECT_FORMAT = "Missing VASO Student Permissions at %1$s";
 	private static final String EMAIL_BODY_RESOURCE_NAME = "EmailBody.html";
-	private static final String SCILYMPIAD_STUDENT_ROW_FORMAT = """
+	private static final EmailTemplate SCILYMPIAD_STUDENT_ROW = EmailTemplate.parse("""
 				<tr>
 					<td>%1$s</td>
 					<td>%2$s</td>
 					<td>%3$d</td>
 				</tr>
-		""";
-	private static final String PORTAL_STUDENT_ROW_FORMAT = """
+		""");
+	private static final EmailTemplate PORTAL_STUDENT_ROW = EmailTemplate.parse("""
 				<tr>
 					<td>%1$s</td>
 					<td>%2$s</td>
 					<td>%3$s</td>
 					<td>%4$d</td>
 				</tr>
-		""";
+		""");
 	private static final String[] HEADINGS_FOR_STUDENTS_IN_ONLY_ONE_SYSTEM = {
 		"School", "Last Name", "First Name", "Nickname", "Grade"
 	};
@@ -69,52 +80,185 @@ public class ReportBuilder {
 	}
 
 	private final Emailer emailer;
+	// Null when the school reports are streamed ahead of the merged engine:
 	private final DifferenceEngine engine;
+	private final List<DuplicateFinder.Cluster> pDuplicates;
+	private final List<DuplicateFinder.Cluster> sDuplicates;
 	private final File masterReport;
 	private final File reportDir;
+	// Map of sheet to the length of the longest value seen in each column:
+	private final Map<Sheet, int[]> maxColumnLengths;
+	private final EmailTemplate emailBodyTemplate;
+	private final String permissionUrl;
+	// Each rendering thread reuses its own buffer for the email bodies:
+	private final ThreadLocal<StringBuilder> emailBodyBuffer;
 
 	public ReportBuilder(DifferenceEngine engine, File masterReport, File reportDir)
 			throws IOException {
+		this(engine, masterReport, reportDir, List.of(), List.of());
+	}
+
+	/**
+	 * @param pDuplicates The probable duplicates within the Portal roster
+	 * @param sDuplicates The probable duplicates within the Scilympiad roster
+	 */
+	public ReportBuilder(DifferenceEngine engine, File masterReport, File reportDir,
+			List<DuplicateFinder.Cluster> pDuplicates, List<DuplicateFinder.Cluster> sDuplicates)
+			throws IOException {
+		this(masterReport, reportDir, pDuplicates, sDuplicates,
+			Objects.requireNonNull(engine, "engine"));
+	}
+
+	/**
+	 * Creates a builder without an engine, for a streamed run, in which each
+	 * school's report is built from its own partition of the comparison.  The
+	 * school methods must then be given the school's results, and the master
+	 * report the merged engine.
+	 */
+	public static ReportBuilder forStreaming(File masterReport, File reportDir,
+			List<DuplicateFinder.Cluster> pDuplicates, List<DuplicateFinder.Cluster> sDuplicates)
+			throws IOException {
+		return new ReportBuilder(masterReport, reportDir, pDuplicates, sDuplicates, null);
+	}
+
+	private ReportBuilder(File masterReport, File reportDir,
+			List<DuplicateFinder.Cluster> pDuplicates, List<DuplicateFinder.Cluster> sDuplicates,
+			DifferenceEngine engine) throws IOException {
 		emailer = new Emailer();
-		this.engine = Objects.requireNonNull(engine, "engine");
+		this.engine = engine;
+		this.pDuplicates = Objects.requireNonNull(pDuplicates, "pDuplicates");
+		this.sDuplicates = Objects.requireNonNull(sDuplicates, "sDuplicates");
 		this.masterReport = Objects.requireNonNull(masterReport, "masterReportFile");
 		this.reportDir = Objects.requireNonNull(reportDir, "reportDir");
+		maxColumnLengths = new HashMap<>();
+
+		permissionUrl = Configuration.get().getPermissionUrl();
+		emailBodyTemplate = EmailTemplate.fromResource(EMAIL_BODY_RESOURCE_NAME);
+		emailBodyBuffer = ThreadLocal.withInitial(StringBuilder::new);
 	}
 
-	public void createReport(String schoolName, List<Coach> coaches, boolean sendEmail) {
-		if (schoolName == null || coaches == null) {
-			try (Workbook workbook = new XSSFWorkbook(XSSFWorkbookType.XLSX)) {
-				createMatchesSheet(workbook);
-				createSNotInPSheet(workbook, null);
-				createPNotInSSheet(workbook, null);
+	public void createMasterReport() {
+		createMasterReport(requireEngine());
+	}
 
-				try (OutputStream os = new FileOutputStream(getReportFile(null))) {
-					workbook.write(os);
-				}
-			} catch (IOException ex) {
-				throw new UncheckedIOException(ex);
+	public void createMasterReport(DifferenceEngine engine) {
+		var timer = Metrics.get().startTimer("report.master.write");
+		var event = new FlightEvents.ReportWrite();
+		event.begin();
+		SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW_SIZE);
+		try (workbook) {
+			createMatchesSheet(workbook, engine);
+			createSNotInPSheet(workbook, engine, null);
+			createPNotInSSheet(workbook, engine, null);
+			if (!pDuplicates.isEmpty() || !sDuplicates.isEmpty()) {
+				createDuplicatesSheet(workbook);
 			}
-		} else {
-			var numSStudentsNotFoundInP = engine.getSStudentsNotFoundInP().stream()
-				.filter(student -> student.school().equals(schoolName))
-				.count();
-			if (numSStudentsNotFoundInP <= 0) {
-				System.out.format("No missing permissions: %1$s%n", schoolName);
-				return;
+
+			File reportFile = getReportFile(null);
+			try (OutputStream os = new FileOutputStream(reportFile)) {
+				workbook.write(os);
 			}
+			event.school = "";
+			event.bytes = reportFile.length();
+			event.commit();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		} finally {
+			workbook.dispose();	// delete the temporary files backing the sheets
+			maxColumnLengths.clear();
+			timer.stop();
+		}
+	}
 
-			var emailBody = createSchoolReport(schoolName);
-			if (sendEmail) {
-				var emailSubject = EMAIL_SUBJECT_FORMAT.formatted(schoolName);
-				var recipients = coaches.stream()
-					.map(Coach::prettyEmail)
-					.collect(Collectors.toUnmodifiableList());
-				emailer.send(emailSubject, emailBody, null, schoolName, recipients);
+	/**
+	 * Writes the HTML report for one school.  Safe to call concurrently for
+	 * different schools.
+	 *
+	 * @return The report (which doubles as the email body), or empty if the
+	 *         school has no missing permissions
+	 */
+	public Optional<String> createSchoolReport(String schoolName) {
+		return createSchoolReport(schoolName, getSchoolResults(schoolName));
+	}
+
+	public Optional<String> createSchoolReport(String schoolName,
+			DifferenceEngine.SchoolResults schoolResults) {
+		return schoolResults.sStudentsNotFoundInP().isEmpty()
+			? Optional.empty()
+			: Optional.of(writeSchoolReport(schoolName, schoolResults));
+	}
+
+	/**
+	 * Computes a stable digest of a school's missing-permission list, so that
+	 * a later run can tell whether the list has changed.
+	 */
+	public String computeSchoolDigest(String schoolName) {
+		return computeSchoolDigest(getSchoolResults(schoolName));
+	}
+
+	public String computeSchoolDigest(DifferenceEngine.SchoolResults schoolResults) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (Student student : schoolResults.sStudentsNotFoundInP()) {
+				Stream.of(student.lastName(), student.firstName(), student.nickName(),
+						Integer.toString(student.grade()))
+					.forEach(field -> {
+						digest.update(Objects.toString(field, "").getBytes(Util.CHARSET));
+						digest.update((byte) 0);
+					});
 			}
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Spools the email of a school's report to its coaches in the outbox.  Safe
+	 * to call concurrently.
+	 *
+	 * @return false if the school has no coaches, or if the identical email was
+	 *         already delivered recently
+	 */
+	public boolean queueSchoolReport(String schoolName, List<Coach> coaches, String emailBody,
+			EmailOutbox outbox) {
+		var recipients = getRecipients(coaches);
+		if (recipients.isEmpty()) {
+			return false;
+		}
+		var emailSubject = EMAIL_SUBJECT_FORMAT.formatted(schoolName);
+		var key = EmailOutbox.computeKey(schoolName, recipients, emailSubject, emailBody);
+		return outbox.enqueue(schoolName, key,
+			emailer.createMessage(emailSubject, emailBody, null, recipients));
+	}
+
+	public EmailOutbox openOutbox() {
+		return emailer.openOutbox();
+	}
+
+	public SmtpTransportPool openTransportPool(int poolSize) {
+		return emailer.openTransportPool(poolSize);
+	}
+
+	public static List<String> getRecipients(List<Coach> coaches) {
+		return coaches.stream()
+			.map(Coach::prettyEmail)
+			.collect(Collectors.toUnmodifiableList());
+	}
+
+	public DifferenceEngine.SchoolResults getSchoolResults(String schoolName) {
+		return requireEngine().getSchoolResults(schoolName);
+	}
+
+	private DifferenceEngine requireEngine() {
+		if (engine == null) {
+			throw new IllegalStateException(
+				"A streaming report builder needs the results passed explicitly");
 		}
+		return engine;
 	}
 
-	private void createMatchesSheet(Workbook workbook) {
+	private void createMatchesSheet(Workbook workbook, DifferenceEngine engine) {
 		/*
 		 * First, we create a new matches data structure that combines the near-matches
 		 * found by the difference engine with the manually adjudicated matches from the
@@ -135,18 +279,18 @@ public class ReportBuilder {
 		var sheet = workbook.createSheet(MATCHES_SHEET_TITLE);
 		setHeadings(sheet, "Source", "Distance", "School", "Last Name", "First Name",
 			"Nickname", "Grade", "Verdict");
+		CellRangeAddressList portalVerdictCells = new CellRangeAddressList();
 		boolean isEvenSStudentIndex = false;
-		List<Integer> portalRowNumbers = new ArrayList<>();
 		for (var entry : matchesForDisplay.entrySet()) {
 			Student sStudent = entry.getKey();
 			Map<Integer, List<Student>> matches = entry.getValue();
 			createNearMatchRowScilympiad(sheet, sStudent, matches, styles,
-				isEvenSStudentIndex, portalRowNumbers);
+				isEvenSStudentIndex, portalVerdictCells);
 			isEvenSStudentIndex = !isEvenSStudentIndex;
 		}
-		setValidation(sheet, portalRowNumbers);
+		setValidation(sheet, portalVerdictCells);
 		sheet.createFreezePane(0, 1);
-		autoSizeColumns(sheet);
+		setColumnWidths(sheet);
 	}
 
 	private EnumMap<Style, CellStyle> createMatchesSheetStyles(Workbook workbook) {
@@ -178,7 +322,7 @@ public class ReportBuilder {
 
 	private void createNearMatchRowScilympiad(Sheet sheet, Student sStudent,
 			Map<Integer, List<Student>> matches, EnumMap<Style, CellStyle> styles,
-			boolean isEvenSStudentIndex, List<Integer> portalRowNumbers) {
+			boolean isEvenSStudentIndex, CellRangeAddressList portalVerdictCells) {
 		Row row = createNextRow(sheet);
 		CellStyle firstStyle = styles.get(
 			isEvenSStudentIndex ? Style.WHITE_FIRST_COLUMN : Style.GRAY_FIRST_COLUMN);
@@ -203,14 +347,19 @@ public class ReportBuilder {
 		matches.entrySet().stream().forEach(
 			entry -> entry.getValue().forEach(
 				pStudent -> createNearMatchRowPortal(sheet, entry.getKey(), pStudent,
-					firstStyle, subsequentStyle, portalRowNumbers)));
+					firstStyle, subsequentStyle)));
+
+		// The Portal rows below this Scilympiad row are contiguous:
+		int lastPortalRowNum = sheet.getLastRowNum();
+		if (lastPortalRowNum > row.getRowNum()) {
+			portalVerdictCells.addCellRangeAddress(row.getRowNum() + 1, VERDICT_COLUMN_NUMBER,
+				lastPortalRowNum, VERDICT_COLUMN_NUMBER);
+		}
 	}
 
 	private void createNearMatchRowPortal(Sheet sheet, int distance,
-			Student pStudent, CellStyle firstStyle, CellStyle subsequentStyle,
-			List<Integer> portalRowNumbers) {
+			Student pStudent, CellStyle firstStyle, CellStyle subsequentStyle) {
 		Row row = createNextRow(sheet);
-		portalRowNumbers.add(row.getRowNum());
 		createNextCell(row, CellType.STRING, firstStyle)
 			.setCellValue(PORTAL_ROW_LABEL);
 		if (distance < 0) {
@@ -241,11 +390,13 @@ public class ReportBuilder {
 		}
 	}
 
-	private void setValidation(Sheet sheet, List<Integer> portalRowNumbers) {
-		CellRangeAddressList addressList = new CellRangeAddressList();
-		for (int rowNumber : portalRowNumbers) {
-			addressList.addCellRangeAddress(
-				rowNumber, VERDICT_COLUMN_NUMBER, rowNumber, VERDICT_COLUMN_NUMBER);
+	/*
+	 * Applies the verdict drop-down to the Portal rows only, one range per block
+	 * of Portal rows, because Match.parse ignores the Scilympiad rows' verdicts.
+	 */
+	private void setValidation(Sheet sheet, CellRangeAddressList addressList) {
+		if (addressList.countRanges() <= 0) {
+			return;
 		}
 
 		DataValidationHelper dvHelper = sheet.getDataValidationHelper();
@@ -258,49 +409,104 @@ public class ReportBuilder {
 		sheet.addValidationData(validation);
 	}
 
-	private void createSNotInPSheet(Workbook workbook, String schoolName) {
+	private void createSNotInPSheet(Workbook workbook, DifferenceEngine engine,
+			String schoolName) {
 		Sheet sheet = workbook.createSheet(S_NOT_P_SHEET_TITLE);
 		setHeadings(sheet, HEADINGS_FOR_STUDENTS_IN_ONLY_ONE_SYSTEM);
-		engine.getSStudentsNotFoundInP().stream()
-			.filter(student -> (schoolName == null || student.school().equals(schoolName)))
+		var students = (schoolName == null)
+			? engine.getSStudentsNotFoundInP()
+			: engine.getSchoolResults(schoolName).sStudentsNotFoundInP();
+		students.stream()
+			.sorted()	// a no-op unless the engine is in HASHED mode
 			.forEach(student -> createScilympiadStudentRow(sheet, student));
 		sheet.createFreezePane(0, 1);
-		autoSizeColumns(sheet);
+		setColumnWidths(sheet);
 	}
 
-	private void createPNotInSSheet(Workbook workbook, String schoolName) {
+	private void createPNotInSSheet(Workbook workbook, DifferenceEngine engine,
+			String schoolName) {
 		Sheet sheet = workbook.createSheet(P_NOT_S_SHEET_TITLE);
 		setHeadings(sheet, HEADINGS_FOR_STUDENTS_IN_ONLY_ONE_SYSTEM);
-		engine.getPStudentsNotFoundInS().stream()
-			.filter(student -> (schoolName == null || student.school().equals(schoolName)))
+		var students = (schoolName == null)
+			? engine.getPStudentsNotFoundInS()
+			: engine.getSchoolResults(schoolName).pStudentsNotFoundInS();
+		students.stream()
+			.sorted()	// a no-op unless the engine is in HASHED mode
 			.forEach(student -> createPortalStudentRow(sheet, student));
 		sheet.createFreezePane(0, 1);
-		autoSizeColumns(sheet);
+		setColumnWidths(sheet);
 	}
 
-	private String createSchoolReport(String schoolName) {
-		var props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		var appName = props.getProperty("portal.application.name");
-		var permissionUrl = props.getProperty("portal.%1$s.permission.url".formatted(appName));
+	/*
+	 * Lists each cluster of probable duplicates, numbered, with each student's
+	 * distance to the nearest other student in its cluster.
+	 */
+	private void createDuplicatesSheet(Workbook workbook) {
+		Sheet sheet = workbook.createSheet(DUPLICATES_SHEET_TITLE);
+		setHeadings(sheet, "Source", "Cluster", "Distance", "School", "Last Name",
+			"First Name", "Nickname", "Grade");
+		int clusterNumber = 0;
+		for (var cluster : pDuplicates) {
+			createDuplicateRows(sheet, PORTAL_ROW_LABEL, ++clusterNumber, cluster);
+		}
+		for (var cluster : sDuplicates) {
+			createDuplicateRows(sheet, SCILYMPIAD_ROW_LABEL, ++clusterNumber, cluster);
+		}
+		sheet.createFreezePane(0, 1);
+		setColumnWidths(sheet);
+	}
 
-		var sStudentsNotInP = engine.getSStudentsNotFoundInP().stream()
-			.filter(student -> student.school().equals(schoolName))
-			.map(student -> SCILYMPIAD_STUDENT_ROW_FORMAT.formatted(
-				student.lastName(), student.firstName(), student.grade()))
-			.collect(Collectors.joining());
-		var pStudentsNotInS = engine.getPStudentsNotFoundInS().stream()
-			.filter(student -> student.school().equals(schoolName))
-			.map(student -> PORTAL_STUDENT_ROW_FORMAT.formatted(
-				student.lastName(), student.firstName(), student.nickName(), student.grade()))
-			.collect(Collectors.joining());
+	private void createDuplicateRows(Sheet sheet, String source, int clusterNumber,
+			DuplicateFinder.Cluster cluster) {
+		for (var member : cluster.members()) {
+			Student student = member.student();
+			Row row = createNextRow(sheet);
+			createNextCell(row, CellType.STRING)
+				.setCellValue(source);
+			createNextCell(row, CellType.NUMERIC)
+				.setCellValue(clusterNumber);
+			createNextCell(row, CellType.NUMERIC)
+				.setCellValue(member.nearestDistance());
+			createNextCell(row, CellType.STRING)
+				.setCellValue(student.school());
+			createNextCell(row, CellType.STRING)
+				.setCellValue(student.lastName());
+			createNextCell(row, CellType.STRING)
+				.setCellValue(student.firstName());
+			createNextCell(row, CellType.STRING)
+				.setCellValue(student.nickName());
+			createNextCell(row, CellType.NUMERIC)
+				.setCellValue(student.grade());
+		}
+	}
 
-		try {
-			var emailBody = Util.getResourceAsString(EMAIL_BODY_RESOURCE_NAME)
-				.formatted(schoolName, permissionUrl, sStudentsNotInP, pStudentsNotInS);
+	private String writeSchoolReport(String schoolName,
+			DifferenceEngine.SchoolResults schoolResults) {
+		EmailTemplate.Fragment sStudentsNotInP = out -> schoolResults.sStudentsNotFoundInP()
+			.forEach(student -> SCILYMPIAD_STUDENT_ROW.render(out,
+				student.lastName(), student.firstName(), student.grade()));
+		EmailTemplate.Fragment pStudentsNotInS = out -> schoolResults.pStudentsNotFoundInS()
+			.forEach(student -> PORTAL_STUDENT_ROW.render(out,
+				student.lastName(), student.firstName(), student.nickName(), student.grade()));
+
+		var timer = Metrics.get().startTimer("report.school.write");
+		var event = new FlightEvents.ReportWrite();
+		event.begin();
+		var buffer = emailBodyBuffer.get();
+		buffer.setLength(0);
+		emailBodyTemplate.render(buffer, schoolName, permissionUrl, sStudentsNotInP,
+			pStudentsNotInS);
+		var emailBody = buffer.toString();
 
+		try {
 			Path file = getReportFile(schoolName).toPath();
 			Files.writeString(file, emailBody, StandardCharsets.UTF_8,
 				StandardOpenOption.CREATE_NEW);
+			timer.stop();
+			event.school = schoolName;
+			event.bytes = Files.size(file);
+			event.commit();
+			Metrics.get().increment("report.schools.written");
 
 			return emailBody;
 		} catch (IOException ex) {
@@ -346,6 +552,10 @@ public class ReportBuilder {
 	private Row createNextRow(Sheet sheet) {
 		// The result from getLastRowNum() does not include the +1:
 		int lastRowNum = sheet.getLastRowNum();
+		if (lastRowNum != -1) {
+			// The previous row is complete, so measure it before it can be flushed:
+			recordColumnLengths(sheet, sheet.getRow(lastRowNum));
+		}
 		return sheet.createRow(
 			(lastRowNum == -1) ? 0 : lastRowNum + 1);
 	}
@@ -364,9 +574,45 @@ public class ReportBuilder {
 			cellType);
 	}
 
-	private void autoSizeColumns(Sheet sheet) {
-		for (int colNum = 0; colNum < sheet.getRow(0).getLastCellNum(); ++colNum) {
-			sheet.autoSizeColumn(colNum);
+	/*
+	 * Tracks the longest value in each column.  This replaces autoSizeColumn,
+	 * which re-measures every cell with AWT font metrics and which cannot see
+	 * the rows a streaming workbook has already flushed.
+	 */
+	private void recordColumnLengths(Sheet sheet, Row row) {
+		if (row == null) {
+			return;
+		}
+		int[] maxLengths = maxColumnLengths.computeIfAbsent(sheet,
+			key -> new int[Math.max(row.getLastCellNum(), 0)]);
+		for (Cell cell : row) {
+			int colNum = cell.getColumnIndex();
+			if (colNum >= maxLengths.length) {
+				maxLengths = Arrays.copyOf(maxLengths, colNum + 1);
+				maxColumnLengths.put(sheet, maxLengths);
+			}
+			maxLengths[colNum] = Math.max(maxLengths[colNum], getDisplayLength(cell));
+		}
+	}
+
+	private static int getDisplayLength(Cell cell) {
+		return switch (cell.getCellType()) {
+			case STRING -> cell.getStringCellValue().length();
+			case NUMERIC -> Long.toString(Math.round(cell.getNumericCellValue())).length();
+			default -> 0;
+		};
+	}
+
+	private void setColumnWidths(Sheet sheet) {
+		int lastRowNum = sheet.getLastRowNum();
+		if (lastRowNum != -1) {
+			recordColumnLengths(sheet, sheet.getRow(lastRowNum));
+		}
+		int[] maxLengths = maxColumnLengths.getOrDefault(sheet, new int[0]);
+		for (int colNum = 0; colNum < maxLengths.length; ++colNum) {
+			int widthInChars = Math.min(MAX_COLUMN_WIDTH_CHARS,
+				maxLengths[colNum] + COLUMN_WIDTH_PADDING_CHARS);
+			sheet.setColumnWidth(colNum, widthInChars * 256);	// in 1/256ths of a character
 		}
 	}
 
@@ -0,0 +1,91 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * An immutable index over a roster for finding the students nearest to a
+ * query student.  An exact hash answers the common case of an identical name,
+ * grade, and school directly, and otherwise the candidates are limited to
+ * the query's block, as defined by the distance function.
+ */
+public class RosterIndex {
+	public static record Candidate(Student student, int distance) {}
+
+	private static record ExactKey(String school, String lastName, String firstName, int grade) {
+		public static ExactKey of(Student student) {
+			return new ExactKey(student.school().toLowerCase(), student.lastName().toLowerCase(),
+				student.firstName().toLowerCase(), student.grade());
+		}
+	}
+
+	private static final Comparator<Candidate> CANDIDATE_ORDER = Comparator
+		.comparingInt(Candidate::distance)
+		.thenComparing(Candidate::student);
+
+	private final DistanceFunction distanceFunction;
+	private final SortedSet<Student> students;
+	private final Map<ExactKey, List<Student>> exactIndex;
+	// Each block is in the roster's sorted order:
+	private final Map<String, List<Student>> blocks;
+
+	public RosterIndex(Collection<Student> students, DistanceFunction distanceFunction) {
+		this.distanceFunction = distanceFunction;
+		exactIndex = new HashMap<>();
+		blocks = new HashMap<>();
+		var sortedStudents = new TreeSet<>(students);
+		this.students = Collections.unmodifiableSortedSet(sortedStudents);
+		for (Student student : sortedStudents) {
+			exactIndex.computeIfAbsent(ExactKey.of(student), key -> new ArrayList<>())
+				.add(student);
+			blocks.computeIfAbsent(distanceFunction.blockingKey(student), key -> new ArrayList<>())
+				.add(student);
+		}
+	}
+
+	public int size() {
+		return students.size();
+	}
+
+	/** Returns all of the indexed students, in sorted order. */
+	public SortedSet<Student> getStudents() {
+		return students;
+	}
+
+	public DistanceFunction getDistanceFunction() {
+		return distanceFunction;
+	}
+
+	/** Returns the indexed students that could be within the match threshold of a student. */
+	public List<Student> getCandidates(Student student) {
+		return blocks.getOrDefault(distanceFunction.blockingKey(student),
+			Collections.emptyList());
+	}
+
+	/**
+	 * Finds the indexed students nearest to a query student.
+	 *
+	 * @param maxDistance The largest distance to report
+	 * @param maxResults  The largest number of students to report
+	 * @return The nearest students, closest first
+	 */
+	public List<Candidate> findNearest(Student query, int maxDistance, int maxResults) {
+		var exactMatches = exactIndex.getOrDefault(ExactKey.of(query), Collections.emptyList());
+		var students = exactMatches.isEmpty()
+			? getCandidates(query)
+			: exactMatches;
+		return students.stream()
+			.map(student -> new Candidate(student, distanceFunction.applyAsInt(query, student)))
+			.filter(candidate -> candidate.distance() <= maxDistance)
+			.sorted(CANDIDATE_ORDER)
+			.limit(maxResults)
+			.toList();
+	}
+}
@@ -0,0 +1,83 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Splits a comparison into independent partitions by the blocking key of the
+ * distance function, which is the school for the weighted distance.  No two
+ * students in different blocks are within the match threshold, so comparing
+ * each partition on its own finds exactly the matches of one big comparison.
+ * The one exception is a manual match between two schools, which would be
+ * lost if its students landed in different partitions, so such schools share
+ * a partition.
+ */
+public class RosterPartitioner {
+	/** The students and manual matches of one or more blocks. */
+	public static record Partition(List<Match> manualMatches, List<Student> pStudents,
+		List<Student> sStudents) {}
+
+	private final DistanceFunction distanceFunction;
+	// Union-find over blocking keys, joined by cross-block manual matches:
+	private final Map<String, String> parent;
+
+	public RosterPartitioner(DistanceFunction distanceFunction) {
+		this.distanceFunction = distanceFunction;
+		parent = new HashMap<>();
+	}
+
+	/** Returns the partitions, in the order of their blocking keys. */
+	public List<Partition> split(List<Match> manualMatches, Collection<Student> pStudents,
+			Collection<Student> sStudents) {
+		parent.clear();
+		for (Match match : manualMatches) {
+			union(distanceFunction.blockingKey(match.getSStudent()),
+				distanceFunction.blockingKey(match.getPStudent()));
+		}
+
+		Map<String, Partition> partitions = new TreeMap<>();
+		for (Match match : manualMatches) {
+			getPartition(partitions, match.getSStudent()).manualMatches().add(match);
+		}
+		for (Student pStudent : pStudents) {
+			getPartition(partitions, pStudent).pStudents().add(pStudent);
+		}
+		for (Student sStudent : sStudents) {
+			getPartition(partitions, sStudent).sStudents().add(sStudent);
+		}
+		return new ArrayList<>(partitions.values());
+	}
+
+	private Partition getPartition(Map<String, Partition> partitions, Student student) {
+		return partitions.computeIfAbsent(find(distanceFunction.blockingKey(student)),
+			key -> new Partition(new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+	}
+
+	private String find(String key) {
+		String root = key;
+		for (String next; (next = parent.get(root)) != null && !next.equals(root);) {
+			root = next;
+		}
+		if (!root.equals(key)) {
+			parent.put(key, root);	// shorten the path for the next lookup
+		}
+		return root;
+	}
+
+	private void union(String lhsKey, String rhsKey) {
+		String lhsRoot = find(lhsKey);
+		String rhsRoot = find(rhsKey);
+		if (!lhsRoot.equals(rhsRoot)) {
+			// The smaller key becomes the root, so that the order is deterministic:
+			if (lhsRoot.compareTo(rhsRoot) < 0) {
+				parent.put(rhsRoot, lhsRoot);
+			} else {
+				parent.put(lhsRoot, rhsRoot);
+			}
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Remembers, between runs, a digest of each school's missing-permission list
+ * and when that school was last notified.  A school needs a new notice only
+ * if its digest has changed or its reminder interval has elapsed.
+ */
+public class SchoolDigestStore {
+	private static record Entry(String digest, Instant lastNotified) {}
+
+	private static final String SCHOOL_COLUMN = "School";
+	private static final String DIGEST_COLUMN = "Digest";
+	private static final String LAST_NOTIFIED_COLUMN = "LastNotified";
+
+	private final File storeFile;
+	private final Duration reminderInterval;
+	private final Map<String, Entry> entries;
+
+	public SchoolDigestStore(File storeFile, Duration reminderInterval) {
+		this.storeFile = storeFile;
+		this.reminderInterval = reminderInterval;
+		entries = new TreeMap<>();
+		load();
+	}
+
+	/** Returns true if the school's digest has changed or a reminder is due. */
+	public synchronized boolean isNotificationDue(String school, String digest) {
+		var entry = entries.get(school);
+		return entry == null
+			|| !entry.digest().equals(digest)
+			|| !entry.lastNotified().plus(reminderInterval).isAfter(Instant.now());
+	}
+
+	public synchronized void recordNotification(String school, String digest) {
+		entries.put(school, new Entry(digest, Instant.now()));
+	}
+
+	/** Forgets a school, so that its next discrepancy is noticed as a change. */
+	public synchronized void forget(String school) {
+		entries.remove(school);
+	}
+
+	public synchronized void save() {
+		try {
+			var dir = storeFile.getAbsoluteFile().getParentFile();
+			dir.mkdirs();
+			Path tmpFile = Files.createTempFile(dir.toPath(), Util.getStem(storeFile), ".tmp");
+			try (
+				Writer wtr = new OutputStreamWriter(Files.newOutputStream(tmpFile), Util.CHARSET);
+				CSVPrinter printer = new CSVPrinter(wtr, CSVFormat.DEFAULT.builder()
+					.setHeader(SCHOOL_COLUMN, DIGEST_COLUMN, LAST_NOTIFIED_COLUMN)
+					.build());
+			) {
+				for (var mapEntry : entries.entrySet()) {
+					printer.printRecord(mapEntry.getKey(), mapEntry.getValue().digest(),
+						mapEntry.getValue().lastNotified());
+				}
+			}
+			Files.move(tmpFile, storeFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private void load() {
+		if (!storeFile.isFile()) {
+			return;
+		}
+		try (
+			InputStream is = Files.newInputStream(storeFile.toPath());
+			CSVParser parser = CSVParser.parse(is, Util.CHARSET, Util.CSV_FORMAT);
+		) {
+			parser.stream().forEach(record -> entries.put(
+				record.get(SCHOOL_COLUMN),
+				new Entry(record.get(DIGEST_COLUMN),
+					Instant.parse(record.get(LAST_NOTIFIED_COLUMN)))));
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+}
@@ -3,15 +3,17 @@ package org.virginiaso.roster_diff;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.apache.commons.csv.CSVParser;
 
 public class SchoolName {
 	static final String RESOURCE_NAME = "school-names.csv";
-	private static final String SCILYMPIAD_NAME_COLUMN = "ScilympiadName";
+	static final String SCILYMPIAD_NAME_COLUMN = "ScilympiadName";
 	static final String CANONICAL_NAME_COLUMN = "CanonicalName";
 	private static final Map<String, String> TRANSLATIONS;
+	private static final Set<String> CANONICAL_NAMES;
 
 	private SchoolName() {}	// prevent instantiation
 
@@ -35,6 +37,7 @@ public class SchoolName {
 		} catch (IOException ex) {
 			throw new UncheckedIOException(ex);
 		}
+		CANONICAL_NAMES = Set.copyOf(TRANSLATIONS.values());
 	}
 
 	public static String normalize(String scilympiadSchoolName) {
@@ -46,4 +49,16 @@ public class SchoolName {
 		}
 		return canonicalName;
 	}
+
+	/**
+	 * Returns the canonical name of a school given either its Scilympiad name or
+	 * a name that is already canonical, or null if the name is neither.
+	 */
+	public static String toCanonical(String schoolName) {
+		var canonicalName = TRANSLATIONS.get(schoolName);
+		if (canonicalName != null) {
+			return canonicalName;
+		}
+		return CANONICAL_NAMES.contains(schoolName) ? schoolName : null;
+	}
 }
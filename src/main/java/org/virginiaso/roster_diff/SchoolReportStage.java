@@ -0,0 +1,328 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Renders the per-school reports in parallel and spools their emails in the
+ * durable outbox, then drains the outbox through a bounded pool of sender
+ * threads, each with its own pooled SMTP connection.  Each school's console
+ * output is buffered and printed in one piece when that school is finished,
+ * and a failure at one school does not stop the others.  When sending, a
+ * school whose missing-permission list is unchanged since its last notice is
+ * not emailed again until its reminder interval elapses, although its report
+ * is still written.
+ * <p>
+ * In a streamed run, schools are instead submitted as their partitions of the
+ * comparison finish, and each school's email is sent as soon as it is queued.
+ */
+public class SchoolReportStage {
+	public static enum Outcome {
+		NO_MISSING_PERMISSIONS,
+		UNCHANGED,
+		REPORT_WRITTEN,
+		EMAIL_QUEUED,
+		ALREADY_SENT,
+		FAILED
+	}
+
+	private static class SchoolTask {
+		public final String school;
+		public final List<Coach> coaches;
+		public final DifferenceEngine.SchoolResults results;
+		public final StringBuilder log;
+		public Optional<String> emailBody;
+		public Outcome outcome;
+		public Throwable failure;
+
+		public SchoolTask(String school, List<Coach> coaches,
+				DifferenceEngine.SchoolResults results) {
+			this.school = school;
+			this.coaches = coaches;
+			this.results = results;
+			log = new StringBuilder();
+			emailBody = Optional.empty();
+			outcome = null;
+			failure = null;
+		}
+
+		public void log(String format, Object... args) {
+			log.append(format.formatted(args));
+		}
+	}
+
+	private final ReportBuilder reportBuilder;
+	private final SchoolDigestStore digestStore;
+	private final int numRenderThreads;
+	private final int numSendThreads;
+
+	/**
+	 * @param digestStore The digests of the previous notices, or null to
+	 *                    notify every school regardless
+	 */
+	public SchoolReportStage(ReportBuilder reportBuilder, SchoolDigestStore digestStore,
+			int numSendThreads) {
+		this.reportBuilder = reportBuilder;
+		this.digestStore = digestStore;
+		numRenderThreads = Runtime.getRuntime().availableProcessors();
+		this.numSendThreads = Math.max(1, numSendThreads);
+	}
+
+	/**
+	 * Creates (and optionally sends) the report for every school.
+	 *
+	 * @return true if every school succeeded
+	 */
+	public boolean run(Map<String, List<Coach>> schoolToCoachesMap, boolean sendEmail) {
+		ExecutorService renderPool = Executors.newFixedThreadPool(numRenderThreads,
+			PhaseRecorder.threadFactory("render"));
+		EmailOutbox outbox = sendEmail
+			? reportBuilder.openOutbox()
+			: null;
+		List<SchoolTask> tasks;
+		try {
+			tasks = schoolToCoachesMap.entrySet().stream()
+				.map(entry -> new SchoolTask(entry.getKey(), entry.getValue(),
+					reportBuilder.getSchoolResults(entry.getKey())))
+				.collect(Collectors.toCollection(ArrayList::new));
+			Progress.get().startReporting(tasks.size());
+			CompletableFuture<?>[] futures = tasks.stream()
+				.map(task -> CompletableFuture
+					.runAsync(() -> render(task, outbox), renderPool)
+					.whenComplete((ignored, ex) -> finish(task, ex)))
+				.toArray(CompletableFuture<?>[]::new);
+			CompletableFuture.allOf(futures).exceptionally(ex -> null).join();
+		} finally {
+			renderPool.shutdown();
+			Progress.get().endStage();
+		}
+
+		// Digests are recorded when an email is queued, because the outbox
+		// guarantees its eventual delivery even if this run fails to drain it:
+		if (outbox != null && digestStore != null) {
+			digestStore.save();
+		}
+		EmailOutbox.DrainResult drainResult = (outbox == null)
+			? null
+			: drain(outbox);
+		return printSummary(tasks, drainResult);
+	}
+
+	private void render(SchoolTask task, EmailOutbox outbox) {
+		boolean trackDigest = (outbox != null && digestStore != null);
+		task.emailBody = reportBuilder.createSchoolReport(task.school, task.results);
+		if (task.emailBody.isEmpty()) {
+			task.outcome = Outcome.NO_MISSING_PERMISSIONS;
+			task.log("No missing permissions: %1$s%n", task.school);
+			if (trackDigest) {
+				digestStore.forget(task.school);
+			}
+			return;
+		} else if (outbox == null) {
+			task.outcome = Outcome.REPORT_WRITTEN;
+			return;
+		}
+
+		String digest = trackDigest
+			? reportBuilder.computeSchoolDigest(task.results)
+			: null;
+		if (trackDigest && !digestStore.isNotificationDue(task.school, digest)) {
+			task.outcome = Outcome.UNCHANGED;
+			task.log("Unchanged since last notice: %1$s%n", task.school);
+		} else if (reportBuilder.queueSchoolReport(task.school, task.coaches,
+				task.emailBody.get(), outbox)) {
+			task.outcome = Outcome.EMAIL_QUEUED;
+			if (trackDigest) {
+				digestStore.recordNotification(task.school, digest);
+			}
+		} else {
+			task.outcome = Outcome.ALREADY_SENT;
+			task.log("Identical email already sent: %1$s%n", task.school);
+		}
+	}
+
+	private EmailOutbox.DrainResult drain(EmailOutbox outbox) {
+		ExecutorService sendPool = Executors.newFixedThreadPool(numSendThreads,
+			PhaseRecorder.threadFactory("send"));
+		try (SmtpTransportPool transportPool = reportBuilder.openTransportPool(numSendThreads)) {
+			Progress.get().startEmailing(outbox.getNumPending());
+			var result = outbox.drain(transportPool, sendPool);
+			Progress.get().endStage();
+			Progress.get().print("Sent %1$d emails over %2$d SMTP connections%n".formatted(
+				transportPool.getMessagesSent(), transportPool.getConnectionsOpened()));
+			return result;
+		} finally {
+			sendPool.shutdown();
+			Progress.get().endStage();
+		}
+	}
+
+	/**
+	 * Starts a streamed run, in which schools are reported as they are
+	 * submitted.  The caller must close the returned run.
+	 */
+	public StreamedRun openStreamedRun(Map<String, List<Coach>> schoolToCoachesMap,
+			boolean sendEmail) {
+		return new StreamedRun(schoolToCoachesMap, sendEmail);
+	}
+
+	/**
+	 * A run that reports each school as soon as its results are submitted,
+	 * and sends its email right after, rather than waiting for every school.
+	 */
+	public class StreamedRun implements AutoCloseable {
+		private final Map<String, List<Coach>> schoolToCoachesMap;
+		private final EmailOutbox outbox;
+		private final SmtpTransportPool transportPool;
+		private final ExecutorService renderPool;
+		private final ExecutorService sendPool;
+		private final Set<String> submittedSchools;
+		private final List<SchoolTask> tasks;
+		private final List<CompletableFuture<?>> futures;
+		private final AtomicInteger numSent;
+
+		private StreamedRun(Map<String, List<Coach>> schoolToCoachesMap, boolean sendEmail) {
+			this.schoolToCoachesMap = schoolToCoachesMap;
+			outbox = sendEmail
+				? reportBuilder.openOutbox()
+				: null;
+			transportPool = sendEmail
+				? reportBuilder.openTransportPool(numSendThreads)
+				: null;
+			renderPool = Executors.newFixedThreadPool(numRenderThreads,
+				PhaseRecorder.threadFactory("render"));
+			sendPool = Executors.newFixedThreadPool(numSendThreads,
+				PhaseRecorder.threadFactory("send"));
+			submittedSchools = ConcurrentHashMap.newKeySet();
+			tasks = Collections.synchronizedList(new ArrayList<>());
+			futures = Collections.synchronizedList(new ArrayList<>());
+			numSent = new AtomicInteger(0);
+			Progress.get().startReporting(schoolToCoachesMap.size());
+		}
+
+		/**
+		 * Reports every school of a finished partition that has coaches.  Safe
+		 * to call concurrently.
+		 */
+		public void submit(DifferenceEngine partition) {
+			partition.getSchoolIndex().forEach((school, results) -> {
+				var coaches = schoolToCoachesMap.get(school);
+				if (coaches != null && submittedSchools.add(school)) {
+					submit(new SchoolTask(school, coaches, results));
+				}
+			});
+		}
+
+		private void submit(SchoolTask task) {
+			tasks.add(task);
+			futures.add(CompletableFuture
+				.runAsync(() -> render(task, outbox), renderPool)
+				.whenComplete((ignored, ex) -> finish(task, ex))
+				.thenRunAsync(() -> {
+					if (task.outcome == Outcome.EMAIL_QUEUED) {
+						// A failure stays in the outbox, for the drain in finish:
+						numSent.addAndGet(outbox.deliver(task.school, transportPool).numSent());
+					}
+				}, sendPool));
+		}
+
+		/**
+		 * Reports the schools that were in no partition, waits for every
+		 * school, and sends whatever is left in the outbox.
+		 *
+		 * @return true if every school succeeded
+		 */
+		public boolean finish() {
+			schoolToCoachesMap.forEach((school, coaches) -> {
+				if (submittedSchools.add(school)) {
+					submit(new SchoolTask(school, coaches, DifferenceEngine.SchoolResults.empty()));
+				}
+			});
+			CompletableFuture<?>[] allFutures;
+			synchronized (futures) {
+				allFutures = futures.toArray(CompletableFuture<?>[]::new);
+			}
+			CompletableFuture.allOf(allFutures).exceptionally(ex -> null).join();
+			Progress.get().endStage();
+
+			EmailOutbox.DrainResult drainResult = null;
+			if (outbox != null) {
+				if (digestStore != null) {
+					digestStore.save();
+				}
+				// Retry failures, and send anything left over from an earlier run:
+				var leftovers = outbox.drain(transportPool, sendPool);
+				drainResult = new EmailOutbox.DrainResult(numSent.get() + leftovers.numSent(),
+					leftovers.numFailed());
+				Progress.get().print("Sent %1$d emails over %2$d SMTP connections%n".formatted(
+					transportPool.getMessagesSent(), transportPool.getConnectionsOpened()));
+			}
+			return printSummary(tasks, drainResult);
+		}
+
+		@Override
+		public void close() {
+			renderPool.shutdown();
+			sendPool.shutdown();
+			if (transportPool != null) {
+				transportPool.close();
+			}
+			Progress.get().endStage();
+		}
+	}
+
+	private static void finish(SchoolTask task, Throwable ex) {
+		if (ex != null) {
+			task.failure = (ex.getCause() != null) ? ex.getCause() : ex;
+			task.outcome = Outcome.FAILED;
+			task.log("FAILED: %1$s (%2$s)%n", task.school, task.failure.getMessage());
+		}
+		// Print the whole school at once, so that schools do not interleave:
+		Progress.get().print(task.log);
+		Progress.get().schoolReported();
+	}
+
+	private static boolean printSummary(List<SchoolTask> tasks,
+			EmailOutbox.DrainResult drainResult) {
+		EnumMap<Outcome, Long> outcomeCounts = tasks.stream()
+			.collect(Collectors.groupingBy(
+				task -> task.outcome,						// classifier
+				() -> new EnumMap<>(Outcome.class),	// map factory
+				Collectors.counting()));				// downstream collector
+		System.out.format("Schools with no missing permissions: %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.NO_MISSING_PERMISSIONS, 0L));
+		System.out.format("Reports unchanged since last notice: %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.UNCHANGED, 0L));
+		System.out.format("Reports written but not sent:        %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.REPORT_WRITTEN, 0L));
+		System.out.format("Reports queued for email:            %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.EMAIL_QUEUED, 0L));
+		System.out.format("Reports already emailed:             %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.ALREADY_SENT, 0L));
+		System.out.format("Failed schools:                      %1$3d%n",
+			outcomeCounts.getOrDefault(Outcome.FAILED, 0L));
+		tasks.stream()
+			.filter(task -> task.outcome == Outcome.FAILED)
+			.forEach(task -> System.out.format("   %1$s: %2$s%n", task.school,
+				task.failure));
+		if (drainResult != null) {
+			System.out.format("Emails sent from the outbox:         %1$3d%n",
+				drainResult.numSent());
+			System.out.format("Emails left in the outbox:           %1$3d%n",
+				drainResult.numFailed());
+		}
+		return outcomeCounts.getOrDefault(Outcome.FAILED, 0L) == 0L
+			&& (drainResult == null || drainResult.numFailed() == 0);
+	}
+}
@@ -62,15 +62,10 @@ public class ScilympiadParser {
 
 	private ScilympiadParser() {}	// Prevents Instantiation
 
-	public static List<Student> readLatestRosterFile()
+	public static List<Student> readLatestRosterFile(Configuration.ScilympiadSite site)
 			throws IOException {
-		var props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		var siteName = props.getProperty("scilympiad.site");
-		var reportDir = Util.parseFileArgument(props, "scilympiad.report.dir");
-		var suffixStr = props.getProperty("scilympiad.%1$s.suffixes".formatted(siteName), "");
-		return Stream.of(suffixStr.split(","))
-			.map(String::strip)
-			.map(suffix -> getLatestReportFileForSuffix(reportDir, suffix))
+		return site.suffixes().stream()
+			.map(suffix -> getLatestReportFileForSuffix(site.reportDir(), suffix))
 			.filter(file -> file != null)
 			.map(ScilympiadParser::parse)
 			.flatMap(List::stream)
@@ -94,7 +89,9 @@ public class ScilympiadParser {
 
 	private static List<Student> parse(File scilympiadStudentFile) {
 		List<Student> result = new ArrayList<>();
-		var timer = new Stopwatch();
+		var timer = Metrics.get().startTimer("scilympiad.parse");
+		var event = new FlightEvents.FileParse();
+		event.begin();
 
 		try (
 			InputStream is = new FileInputStream(scilympiadStudentFile);
@@ -130,6 +127,11 @@ public class ScilympiadParser {
 			throw new UncheckedIOException(ex);
 		}
 
+		Metrics.get().add("scilympiad.students.parsed", result.size());
+		event.file = scilympiadStudentFile.getPath();
+		event.records = result.size();
+		event.bytes = scilympiadStudentFile.length();
+		event.commit();
 		timer.stopAndReport("Parsed Scilympiad student file");
 		return result;
 	}
@@ -13,4 +13,10 @@ public class SimpleDistanceFunction implements DistanceFunction {
 			return Integer.MAX_VALUE;
 		}
 	}
+
+	/* Only students with the same last name and grade can match */
+	@Override
+	public String blockingKey(Student student) {
+		return "%1$s|%2$d".formatted(student.lastName().toLowerCase(), student.grade());
+	}
 }
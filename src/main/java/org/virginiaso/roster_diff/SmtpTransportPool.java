@@ -0,0 +1,138 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * A small pool of connected, authenticated SMTP transports.  Each connection
+ * carries many messages, which avoids a connect/authenticate/quit cycle per
+ * message.  A connection is recycled after a configurable number of messages,
+ * and is reconnected if the server has dropped it.  The send method may be
+ * called concurrently from as many threads as there are connections.
+ */
+public class SmtpTransportPool implements AutoCloseable {
+	private static class PooledTransport {
+		public final Transport transport;
+		public boolean isConnected;
+		public int messagesSent;
+
+		public PooledTransport(Transport transport) {
+			this.transport = transport;
+			isConnected = false;
+			messagesSent = 0;
+		}
+	}
+
+	private final String userName;
+	private final String password;
+	private final int maxMessagesPerConnection;
+	private final List<PooledTransport> allTransports;
+	private final BlockingQueue<PooledTransport> idleTransports;
+	private final AtomicInteger messagesSent;
+	private final AtomicInteger connectionsOpened;
+
+	SmtpTransportPool(Session session, String userName, String password, int poolSize,
+			int maxMessagesPerConnection) throws NoSuchProviderException {
+		this.userName = userName;
+		this.password = password;
+		this.maxMessagesPerConnection = Math.max(1, maxMessagesPerConnection);
+		allTransports = new ArrayList<>();
+		idleTransports = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+		for (int i = 0; i < Math.max(1, poolSize); ++i) {
+			var pooledTransport = new PooledTransport(session.getTransport("smtp"));
+			allTransports.add(pooledTransport);
+			idleTransports.add(pooledTransport);
+		}
+		messagesSent = new AtomicInteger(0);
+		connectionsOpened = new AtomicInteger(0);
+	}
+
+	public void send(MimeMessage message) throws MessagingException {
+		PooledTransport pooledTransport = borrow();
+		var timer = Metrics.get().startTimer(Emailer.SEND_TIMER);
+		var event = new FlightEvents.EmailSend();
+		event.begin();
+		try {
+			message.saveChanges();	// Transport.send does this, but sendMessage does not
+			try {
+				ensureConnected(pooledTransport);
+				pooledTransport.transport.sendMessage(message, message.getAllRecipients());
+			} catch (MessagingException ex) {
+				if (pooledTransport.transport.isConnected()) {
+					throw ex;	// The server rejected the message itself
+				}
+				// The server dropped the connection, so reconnect and try once more:
+				closeQuietly(pooledTransport);
+				ensureConnected(pooledTransport);
+				pooledTransport.transport.sendMessage(message, message.getAllRecipients());
+				event.reconnected = true;
+			}
+			messagesSent.incrementAndGet();
+			timer.stop();
+			Metrics.get().increment(Emailer.SENT_COUNTER);
+			Progress.get().emailSent();
+			event.subject = message.getSubject();
+			event.recipients = message.getAllRecipients().length;
+			event.commit();
+			if (++pooledTransport.messagesSent >= maxMessagesPerConnection) {
+				closeQuietly(pooledTransport);
+			}
+		} finally {
+			idleTransports.add(pooledTransport);
+		}
+	}
+
+	public int getMessagesSent() {
+		return messagesSent.get();
+	}
+
+	public int getConnectionsOpened() {
+		return connectionsOpened.get();
+	}
+
+	@Override
+	public void close() {
+		allTransports.forEach(SmtpTransportPool::closeQuietly);
+	}
+
+	private PooledTransport borrow() throws MessagingException {
+		try {
+			return idleTransports.take();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException("Interrupted while waiting for an SMTP connection", ex);
+		}
+	}
+
+	/*
+	 * Uses our own connection flag rather than Transport.isConnected(), which
+	 * costs a NOOP round trip.  A connection the server has dropped is detected
+	 * when a send fails.
+	 */
+	private void ensureConnected(PooledTransport pooledTransport) throws MessagingException {
+		if (!pooledTransport.isConnected) {
+			pooledTransport.transport.connect(userName, password);
+			pooledTransport.isConnected = true;
+			pooledTransport.messagesSent = 0;
+			connectionsOpened.incrementAndGet();
+		}
+	}
+
+	private static void closeQuietly(PooledTransport pooledTransport) {
+		pooledTransport.isConnected = false;
+		try {
+			pooledTransport.transport.close();
+		} catch (MessagingException ex) {
+			// The connection is being discarded anyway
+		}
+	}
+}
@@ -1,15 +1,75 @@
 package org.virginiaso.roster_diff;
 
+import java.util.Comparator;
 import java.util.Objects;
 
-import org.apache.commons.lang3.builder.CompareToBuilder;
+/**
+ * A student on either roster.  Students are compared and hashed many
+ * millions of times in a large run, so the hash is computed once, and the
+ * comparison is a static comparator chain that allocates nothing.  (A record
+ * cannot cache its hash, hence the record-style accessors on a plain class.)
+ */
+public final class Student implements Comparable<Student> {
+	private static final Comparator<String> STRING_ORDER = Comparator.nullsFirst(
+		Comparator.naturalOrder());
 
-public record Student(String firstName, String lastName, String nickName, String school,
-	int grade) implements Comparable<Student> {
+	// Schools first, so that sorted students are grouped by school:
+	private static final Comparator<Student> ORDER = Comparator
+		.comparing(Student::school, STRING_ORDER)
+		.thenComparing(Student::lastName, STRING_ORDER)
+		.thenComparing(Student::firstName, STRING_ORDER)
+		.thenComparing(Student::nickName, STRING_ORDER)
+		.thenComparingInt(Student::grade);
+
+	private final String firstName;
+	private final String lastName;
+	private final String nickName;
+	private final String school;
+	private final int grade;
+	private final int hash;
+
+	public Student(String firstName, String lastName, String nickName, String school,
+			int grade) {
+		this.firstName = firstName;
+		this.lastName = lastName;
+		this.nickName = nickName;
+		this.school = school;
+		this.grade = grade;
+
+		// The same value as Objects.hash(school, lastName, firstName, nickName,
+		// grade), without the varargs array and the boxed grade:
+		int h = 1;
+		h = 31 * h + Objects.hashCode(school);
+		h = 31 * h + Objects.hashCode(lastName);
+		h = 31 * h + Objects.hashCode(firstName);
+		h = 31 * h + Objects.hashCode(nickName);
+		h = 31 * h + Integer.hashCode(grade);
+		hash = h;
+	}
+
+	public String firstName() {
+		return firstName;
+	}
+
+	public String lastName() {
+		return lastName;
+	}
+
+	public String nickName() {
+		return nickName;
+	}
+
+	public String school() {
+		return school;
+	}
+
+	public int grade() {
+		return grade;
+	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(school, lastName, firstName, nickName, grade);
+		return hash;
 	}
 
 	@Override
@@ -19,19 +79,18 @@ public record Student(String firstName, String lastName, String nickName, String
 		} else if (!(rhs instanceof Student rhsAsPS)) {
 			return false;
 		} else {
-			return this.compareTo(rhsAsPS) == 0;
+			return hash == rhsAsPS.hash
+				&& grade == rhsAsPS.grade
+				&& Objects.equals(school, rhsAsPS.school)
+				&& Objects.equals(lastName, rhsAsPS.lastName)
+				&& Objects.equals(firstName, rhsAsPS.firstName)
+				&& Objects.equals(nickName, rhsAsPS.nickName);
 		}
 	}
 
 	@Override
 	public int compareTo(Student rhs) {
-		return new CompareToBuilder()
-			.append(this.school, rhs.school)
-			.append(this.lastName, rhs.lastName)
-			.append(this.firstName, rhs.firstName)
-			.append(this.nickName, rhs.nickName)
-			.append(this.grade, rhs.grade)
-			.toComparison();
+		return ORDER.compare(this, rhs);
 	}
 
 	@Override
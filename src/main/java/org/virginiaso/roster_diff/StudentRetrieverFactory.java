@@ -66,11 +66,20 @@ public class StudentRetrieverFactory {
 	private StudentRetrieverFactory() {}	// prevent instantiation
 
 	public static PortalRetriever<Student> create() {
+		return create(Configuration.get());
+	}
+
+	static PortalRetriever<Student> create(Configuration config) {
+		return create(config, new PortalRequestScheduler(config));
+	}
+
+	/** Creates a retriever that shares the scheduler of a retrieval run. */
+	static PortalRetriever<Student> create(Configuration config, PortalRequestScheduler scheduler) {
 		Gson gson = new GsonBuilder()
 			.setPrettyPrinting()
 			.registerTypeAdapter(Student.class, new StudentSerializer())
 			.create();
-		return new PortalRetriever<Student>(gson, "roster",
+		return new PortalRetriever<Student>(config, scheduler, gson, "roster",
 			new TypeToken<ReportResponse<Student>>(){}.getType());
 	}
 }
@@ -1,6 +1,7 @@
 package org.virginiaso.roster_diff;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -77,28 +78,30 @@ public class Util {
 	}
 
 	public static Properties loadPropertiesFromResource(String resourceName) {
-		try (
-			InputStream is = Util.getResourceAsInputStream(resourceName);
-			Reader rdr = new InputStreamReader(is, CHARSET);
-		) {
-			Properties props = new Properties(System.getProperties());
-			props.load(rdr);
-			return props;
+		try (InputStream is = Util.getResourceAsInputStream(resourceName)) {
+			return loadProperties(is);
 		} catch (IOException ex) {
 			throw new UncheckedIOException(ex);
 		}
 	}
 
-	public static <T> Stream<T> asStream(Iterable<T> it) {
-		return StreamSupport.stream(it.spliterator(), false);
+	public static Properties loadPropertiesFromFile(File file) {
+		try (InputStream is = new FileInputStream(file)) {
+			return loadProperties(is);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
 	}
 
-	public static File parseFileArgument(Properties props, String propName) {
-		String fileNameSetting = props.getProperty(propName);
-		if (fileNameSetting == null || fileNameSetting.isBlank()) {
-			throw new IllegalArgumentException(
-				"Configuration setting '%1$s' is missing".formatted(propName));
+	private static Properties loadProperties(InputStream is) throws IOException {
+		try (Reader rdr = new InputStreamReader(is, CHARSET)) {
+			Properties props = new Properties(System.getProperties());
+			props.load(rdr);
+			return props;
 		}
-		return new File(fileNameSetting.strip());
+	}
+
+	public static <T> Stream<T> asStream(Iterable<T> it) {
+		return StreamSupport.stream(it.spliterator(), false);
 	}
 }
@@ -25,6 +25,15 @@ public class WeightAvgDistanceFunction implements DistanceFunction {
 			+ SCHOOL_WEIGHT * schoolDist;
 	}
 
+	/*
+	 * Students at different schools are at least SCHOOL_WEIGHT apart, which is
+	 * well beyond the match threshold.
+	 */
+	@Override
+	public String blockingKey(Student student) {
+		return student.school().toLowerCase();
+	}
+
 	private static int lowerLD(String lhs, String rhs) {
 		return LD.apply(lhs.toLowerCase(), rhs.toLowerCase());
 	}
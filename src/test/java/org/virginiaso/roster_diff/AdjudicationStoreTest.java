@@ -0,0 +1,130 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AdjudicationStoreTest {
+	private static final String SCHOOL = "Alpha High School";
+	private static final Student S_ANN = new Student("Ann", "Smith", "", SCHOOL, 9);
+	private static final Student P_ANNE = new Student("Anne", "Smith", "", SCHOOL, 9);
+	private static final Student S_BOB = new Student("Bob", "Jones", "", SCHOOL, 10);
+	private static final Student P_ROB = new Student("Rob", "Jones", "", SCHOOL, 10);
+	private static final Student S_CARL = new Student("Carl", "Diaz", "", SCHOOL, 7);
+	private static final Student P_KARL = new Student("Karl", "Diaz", "", SCHOOL, 7);
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void incrementalImportTest() throws IOException {
+		var logFile = tempDir.resolve("adjudications.log").toFile();
+		var store = new AdjudicationStore(logFile);
+		assertEquals(2, store.importRows(List.of(
+			new Match(S_ANN, P_ANNE, Verdict.SAME),
+			new Match(S_BOB, P_ROB, Verdict.DIFFERENT),
+			new Match(S_CARL, P_KARL, null)), "v1"));
+
+		// Unchanged rows are not logged again:
+		assertEquals(0, store.importRows(List.of(
+			new Match(S_ANN, P_ANNE, Verdict.SAME),
+			new Match(S_BOB, P_ROB, Verdict.DIFFERENT)), "v2"));
+
+		// A cleared verdict is removed, but a missing row keeps its verdict:
+		assertEquals(2, store.importRows(List.of(
+			new Match(S_BOB, P_ROB, null),
+			new Match(S_CARL, P_KARL, Verdict.SAME)), "v3"));
+
+		var reopened = new AdjudicationStore(logFile);
+		assertEquals(2, reopened.size());
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_ANN, P_ANNE));
+		assertNull(reopened.getVerdict(S_BOB, P_ROB));
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_CARL, P_KARL));
+		assertEquals(List.of(S_CARL, S_ANN), reopened.getMatches().stream()
+			.map(Match::getSStudent)
+			.toList());
+	}
+
+	@Test
+	public void unchangedWorkbookTest() throws IOException {
+		var logFile = tempDir.resolve("adjudications.log").toFile();
+		var workbook = tempDir.resolve("master-report.xlsx").toFile();
+		Files.writeString(workbook.toPath(), "not a workbook");
+
+		var store = new AdjudicationStore(logFile);
+		store.recordWorkbook(workbook);
+
+		// The workbook is not parsed (which would fail) when its stamp is unchanged:
+		assertEquals(0, new AdjudicationStore(logFile).importWorkbook(workbook));
+	}
+
+	@Test
+	public void compactionTest() throws IOException {
+		var logFile = tempDir.resolve("adjudications.log").toFile();
+		var store = new AdjudicationStore(logFile);
+		store.importRows(List.of(new Match(S_ANN, P_ANNE, Verdict.SAME)), "v0");
+		for (int i = 1; i <= 600; ++i) {
+			var verdict = (i % 2 == 0) ? Verdict.SAME : Verdict.DIFFERENT;
+			store.importRows(List.of(new Match(S_BOB, P_ROB, verdict)), "v" + i);
+		}
+
+		assertTrue(countLines(logFile) < 1_000, "The log was not compacted");
+		var reopened = new AdjudicationStore(logFile);
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_ANN, P_ANNE));
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_BOB, P_ROB));
+	}
+
+	@Test
+	public void tornTailTest() throws IOException {
+		var logFile = tempDir.resolve("adjudications.log").toFile();
+		new AdjudicationStore(logFile).importRows(
+			List.of(new Match(S_ANN, P_ANNE, Verdict.SAME)), "v1");
+		Files.writeString(logFile.toPath(), "2022-03-01T12:00:00Z\tSET\tDIFF",
+			StandardOpenOption.APPEND);
+
+		var store = new AdjudicationStore(logFile);
+		assertEquals(1, store.size());
+		store.importRows(List.of(new Match(S_BOB, P_ROB, Verdict.DIFFERENT)), "v2");
+
+		var reopened = new AdjudicationStore(logFile);
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_ANN, P_ANNE));
+		assertEquals(Verdict.DIFFERENT, reopened.getVerdict(S_BOB, P_ROB));
+	}
+
+	@Test
+	public void tornGradeTest() throws IOException {
+		var logFile = tempDir.resolve("adjudications.log").toFile();
+		new AdjudicationStore(logFile).importRows(
+			List.of(new Match(S_ANN, P_ANNE, Verdict.SAME)), "v1");
+		var senior = new Student("Dana", "Lee", "", SCHOOL, 12);
+		var truncatedGrade = senior.grade() / 10;	// "1" from "12"
+		Files.writeString(logFile.toPath(), String.join("\t", "2022-03-01T12:00:00Z", "SET",
+			"SAME", SCHOOL, "Lee", "Dana", "", "12", SCHOOL, "Lee", "Dana", "",
+			Integer.toString(truncatedGrade)), StandardOpenOption.APPEND);
+
+		var store = new AdjudicationStore(logFile);
+		assertEquals(1, store.size());
+		assertNull(store.getVerdict(senior,
+			new Student("Dana", "Lee", "", SCHOOL, truncatedGrade)));
+
+		var reopened = new AdjudicationStore(logFile);
+		assertEquals(1, reopened.size());
+		assertEquals(Verdict.SAME, reopened.getVerdict(S_ANN, P_ANNE));
+	}
+
+	private static long countLines(File file) throws IOException {
+		try (var lines = Files.lines(file.toPath())) {
+			return lines.count();
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class DuplicateFinderTest {
+	private static final String SCHOOL_A = "Alpha High School";
+	private static final String SCHOOL_B = "Beta Middle School";
+
+	@Test
+	public void clusterTest() {
+		var roster = List.of(
+			new Student("Ann", "Smith", "", SCHOOL_A, 9),
+			new Student("Bob", "Jones", "", SCHOOL_A, 10),
+			new Student("Anne", "Smith", "", SCHOOL_A, 9),
+			new Student("Ann", "Smyth", "", SCHOOL_A, 9),
+			new Student("Ann", "Smith", "", SCHOOL_B, 9),
+			new Student("Carl", "Diaz", "", SCHOOL_B, 7),
+			new Student("Carl", "Diaz", "", SCHOOL_B, 7));
+
+		Metrics.get().reset();
+		var clusters = new DuplicateFinder(new WeightAvgDistanceFunction(),
+			DifferenceEngine.DISTANCE_THRESHOLD).find(roster);
+
+		assertEquals(2, clusters.size());
+		var smiths = clusters.get(0);
+		assertEquals(SCHOOL_A, smiths.school());
+		assertEquals(List.of("Ann Smith", "Anne Smith", "Ann Smyth"), names(smiths));
+		assertEquals(List.of(1, 1, 1), smiths.members().stream()
+			.map(DuplicateFinder.Member::nearestDistance)
+			.toList());
+
+		var diazes = clusters.get(1);
+		assertEquals(SCHOOL_B, diazes.school());
+		assertEquals(List.of("Carl Diaz", "Carl Diaz"), names(diazes));
+		assertEquals(0, diazes.members().get(0).nearestDistance());
+
+		// Each block of n students scores n(n-1)/2 pairs, and none across blocks:
+		assertEquals(4 * 3 / 2 + 3 * 2 / 2,
+			Metrics.get().getCount(DuplicateFinder.PAIRS_SCORED_COUNTER));
+	}
+
+	@Test
+	public void thresholdTest() {
+		assertThrows(IllegalArgumentException.class, () -> new DuplicateFinder(
+			new WeightAvgDistanceFunction(), DifferenceEngine.DISTANCE_THRESHOLD + 1));
+	}
+
+	private static List<String> names(DuplicateFinder.Cluster cluster) {
+		return cluster.members().stream()
+			.map(member -> member.student().firstName() + " " + member.student().lastName())
+			.toList();
+	}
+}
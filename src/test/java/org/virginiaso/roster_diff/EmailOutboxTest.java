@@ -0,0 +1,155 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class EmailOutboxTest {
+	private static final Duration RESEND_WINDOW = Duration.ofHours(20);
+	private static final String SCHOOL = "Alpha High School";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void resendWindowTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			var emailer = createEmailer(stub);
+			var outbox = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			var key = computeKey(SCHOOL, "Report");
+			assertTrue(outbox.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+			assertEquals(new EmailOutbox.DrainResult(1, 0), drain(emailer, outbox));
+
+			// A delivered message is not spooled again, even by a later run:
+			assertFalse(outbox.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+			var reopened = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			assertFalse(reopened.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+			assertEquals(0, reopened.getNumPending());
+
+			// ... unless the resend window has passed:
+			var expired = new EmailOutbox(emailer, getOutboxDir(), Duration.ZERO);
+			assertTrue(expired.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+			assertEquals(1, stub.getMessages());
+		}
+	}
+
+	@Test
+	public void staleMessageReplacedTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			var emailer = createEmailer(stub);
+			var outbox = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			var oldKey = computeKey(SCHOOL, "Old report");
+			var newKey = computeKey(SCHOOL, "New report");
+			assertTrue(outbox.enqueue(SCHOOL, oldKey, createMessage(emailer, "Old report")));
+			assertTrue(outbox.enqueue(SCHOOL, newKey, createMessage(emailer, "New report")));
+			assertEquals(1, outbox.getNumPending());
+
+			assertEquals(new EmailOutbox.DrainResult(1, 0), drain(emailer, outbox));
+			assertEquals(1, stub.getMessages());
+			assertFalse(outbox.enqueue(SCHOOL, newKey, createMessage(emailer, "New report")));
+			assertTrue(outbox.enqueue(SCHOOL, oldKey, createMessage(emailer, "Old report")));
+		}
+	}
+
+	@Test
+	public void punctuationSchoolsTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			var emailer = createEmailer(stub);
+			var outbox = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			var school1 = "St. Mary's School";
+			var school2 = "St Mary's School";
+			assertTrue(outbox.enqueue(school1, computeKey(school1, "Report"),
+				createMessage(emailer, "Report")));
+			assertTrue(outbox.enqueue(school2, computeKey(school2, "Report"),
+				createMessage(emailer, "Report")));
+			assertEquals(2, outbox.getNumPending());
+
+			assertEquals(new EmailOutbox.DrainResult(2, 0), drain(emailer, outbox));
+			assertEquals(2, stub.getMessages());
+		}
+	}
+
+	@Test
+	public void failedSendTest() throws IOException {
+		var outboxDir = getOutboxDir();
+		var key = computeKey(SCHOOL, "Report");
+		try (var deadStub = new SmtpStubServer()) {
+			var emailer = createEmailer(deadStub);
+			deadStub.close();	// Nothing is listening on the port now
+			var outbox = new EmailOutbox(emailer, outboxDir, RESEND_WINDOW);
+			assertTrue(outbox.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+			assertEquals(new EmailOutbox.DrainResult(0, 1), drain(emailer, outbox));
+			assertEquals(1, outbox.getNumPending());
+		}
+
+		try (var stub = new SmtpStubServer()) {
+			var emailer = createEmailer(stub);
+			var outbox = new EmailOutbox(emailer, outboxDir, RESEND_WINDOW);
+			assertEquals(new EmailOutbox.DrainResult(1, 0), drain(emailer, outbox));
+			assertEquals(0, outbox.getNumPending());
+			assertEquals(1, stub.getMessages());
+			assertFalse(outbox.enqueue(SCHOOL, key, createMessage(emailer, "Report")));
+		}
+	}
+
+	@Test
+	public void tornSentLogTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			var emailer = createEmailer(stub);
+			var outbox = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			var sentKey = computeKey(SCHOOL, "Sent report");
+			assertTrue(outbox.enqueue(SCHOOL, sentKey, createMessage(emailer, "Sent report")));
+			assertEquals(new EmailOutbox.DrainResult(1, 0), drain(emailer, outbox));
+
+			// A crash while logging a second delivery leaves a torn line:
+			var tornKey = computeKey(SCHOOL, "Torn report");
+			Files.writeString(new File(getOutboxDir(), "sent.log").toPath(),
+				"2022-03-01T12:0\t" + tornKey, StandardOpenOption.APPEND);
+
+			var reopened = new EmailOutbox(emailer, getOutboxDir(), RESEND_WINDOW);
+			assertFalse(reopened.enqueue(SCHOOL, sentKey, createMessage(emailer, "Sent report")));
+			assertTrue(reopened.enqueue(SCHOOL, tornKey, createMessage(emailer, "Torn report")));
+		}
+	}
+
+	private File getOutboxDir() {
+		return tempDir.resolve("outbox").toFile();
+	}
+
+	private static Emailer createEmailer(SmtpStubServer stub) {
+		return new Emailer(Configuration.load(stub.getMailProperties()));
+	}
+
+	private static String computeKey(String school, String body) {
+		return EmailOutbox.computeKey(school, List.of("coach@example.org"), "Subject", body);
+	}
+
+	private static MimeMessage createMessage(Emailer emailer, String body) {
+		return emailer.createMessage("Subject", "<html><body><p>%1$s</p></body></html>"
+			.formatted(body), null, List.of("Coach <coach@example.org>"));
+	}
+
+	private static EmailOutbox.DrainResult drain(Emailer emailer, EmailOutbox outbox) {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try (var pool = emailer.openTransportPool(2)) {
+			return outbox.drain(pool, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
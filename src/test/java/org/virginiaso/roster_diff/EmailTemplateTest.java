@@ -0,0 +1,36 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+public class EmailTemplateTest {
+	@Test
+	public void matchesStringFormatTest() throws IOException {
+		var template = Util.getResourceAsString("EmailBody.html");
+		var args = new Object[] { "Stub School 1", "https://example.org/permission",
+			"<tr><td>Row 1</td></tr>%n", "<tr><td>Row 2</td></tr>%n" };
+
+		var out = new StringBuilder();
+		EmailTemplate.parse(template).render(out, args);
+
+		assertEquals(template.formatted(args), out.toString());
+	}
+
+	@Test
+	public void escapesAndFragmentsTest() {
+		var out = new StringBuilder();
+		EmailTemplate.parse("%2$d%% of %1$s:%n%3$s.").render(out, "students", 42,
+			(EmailTemplate.Fragment) buffer -> buffer.append("nested"));
+
+		assertEquals("42%% of students:%n%s.".formatted("nested"), out.toString());
+	}
+
+	@Test
+	public void unsupportedSpecifierTest() {
+		assertThrows(IllegalArgumentException.class, () -> EmailTemplate.parse("%5.2f"));
+	}
+}
@@ -0,0 +1,61 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+
+public class EmailerTest {
+	private static final int NUM_MESSAGES = 200;
+	private static final int POOL_SIZE = 4;
+
+	@Test
+	public void pooledSendTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			stub.setLatencyMillis(2);
+			var props = stub.getMailProperties();
+			props.setProperty("mail.pool.max.messages.per.connection", "25");
+			var emailer = new Emailer(Configuration.load(props));
+
+			var timer = Metrics.get().startTimer("test.email.send");
+			emailer.sendAll(createMessages(emailer), POOL_SIZE);
+			timer.stopAndReport("Sent %1$d messages over %2$d pooled connections",
+				NUM_MESSAGES, stub.getConnections());
+
+			// Each connection carries up to 25 messages, and each of the pooled
+			// transports may end with one partly used connection:
+			assertEquals(NUM_MESSAGES, stub.getMessages());
+			assertTrue(stub.getConnections() >= NUM_MESSAGES / 25);
+			assertTrue(stub.getConnections() <= NUM_MESSAGES / 25 + POOL_SIZE);
+		}
+	}
+
+	@Test
+	public void droppedConnectionTest() throws IOException {
+		try (var stub = new SmtpStubServer()) {
+			stub.setDropConnectionAfter(10);
+			var emailer = new Emailer(Configuration.load(stub.getMailProperties()));
+
+			emailer.sendAll(createMessages(emailer), POOL_SIZE);
+
+			assertEquals(NUM_MESSAGES, stub.getMessages());
+			assertTrue(stub.getConnections() >= NUM_MESSAGES / 10,
+				"Dropped connections should have been re-established");
+		}
+	}
+
+	private static List<MimeMessage> createMessages(Emailer emailer) {
+		return IntStream.range(0, NUM_MESSAGES)
+			.mapToObj(i -> emailer.createMessage("Test message %1$d".formatted(i),
+				"<html><body><p>Message %1$d</p></body></html>".formatted(i), null,
+				List.of("Coach %1$d <coach%1$d@example.org>".formatted(i))))
+			.collect(Collectors.toUnmodifiableList());
+	}
+}
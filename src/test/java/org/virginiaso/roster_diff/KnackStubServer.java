@@ -0,0 +1,313 @@
+package org.virginiaso.roster_diff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for the Knack API, for testing and benchmarking
+ * PortalRetriever without the real Portal.  It implements the session
+ * endpoint and the paged, raw-format records endpoint, serves synthetic
+ * student and coach records, and can inject latency and transient errors.
+ */
+public class KnackStubServer implements AutoCloseable {
+	public static final String APPLICATION_ID = "stub-application";
+	public static final String ROSTER_SCENE = "1";
+	public static final String ROSTER_VIEW = "2";
+	public static final String COACH_SCENE = "3";
+	public static final String COACH_VIEW = "4";
+
+	private static final Pattern SESSION_PATH = Pattern.compile(
+		"^/v1/applications/([^/]+)/session$");
+	private static final Pattern RECORDS_PATH = Pattern.compile(
+		"^/v1/pages/scene_([^/]+)/views/view_([^/]+)/records$");
+	private static final String[] FIRST_NAMES = {
+		"Aiden", "Amelia", "Benjamin", "Charlotte", "Daniel", "Elijah", "Emma", "Grace",
+		"Harper", "Isabella", "Jackson", "Liam", "Lucas", "Mason", "Mia", "Noah",
+		"Olivia", "Priya", "Sophia", "William"
+	};
+	private static final String[] LAST_NAMES = {
+		"Anderson", "Brown", "Chen", "Davis", "Garcia", "Johnson", "Kim", "Lee",
+		"Martin", "Miller", "Nguyen", "Patel", "Robinson", "Singh", "Smith", "Taylor",
+		"Thomas", "Walker", "White", "Wilson"
+	};
+	private static final String[] NICKNAMES = { "", "", "", "Ben", "Liz", "Will", "Sam" };
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Random random;
+	private final List<JsonObject> students;
+	private final List<JsonObject> coaches;
+	private final String token;
+	private final AtomicInteger sessionRequests;
+	private final AtomicInteger recordRequests;
+	private final AtomicInteger injectedErrors;
+	private volatile long latencyMillis;
+	private volatile double errorRate;
+	private volatile boolean rejectNextToken;
+
+	public KnackStubServer(int numStudents, int numCoaches, int numSchools, long seed)
+			throws IOException {
+		random = new Random(seed);
+		students = new ArrayList<>();
+		for (int i = 0; i < numStudents; ++i) {
+			students.add(createStudentRecord(i, numSchools));
+		}
+		coaches = new ArrayList<>();
+		for (int i = 0; i < numCoaches; ++i) {
+			coaches.add(createCoachRecord(i, numSchools));
+		}
+		token = createToken();
+		sessionRequests = new AtomicInteger(0);
+		recordRequests = new AtomicInteger(0);
+		injectedErrors = new AtomicInteger(0);
+		latencyMillis = 0;
+		errorRate = 0.0;
+		rejectNextToken = false;
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newFixedThreadPool(4);
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public String getApiUrl() {
+		return "http://%1$s:%2$d/v1".formatted(
+			server.getAddress().getHostString(), server.getAddress().getPort());
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/** Sets the fraction of record requests that fail with a 429 or 503. */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/** Causes the next record request to fail with a 401, as if the token expired. */
+	public void rejectNextToken() {
+		rejectNextToken = true;
+	}
+
+	public int getSessionRequests() {
+		return sessionRequests.get();
+	}
+
+	public int getRecordRequests() {
+		return recordRequests.get();
+	}
+
+	public int getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			sleep(latencyMillis);
+			var path = exchange.getRequestURI().getPath();
+			Matcher sessionMatcher = SESSION_PATH.matcher(path);
+			Matcher recordsMatcher = RECORDS_PATH.matcher(path);
+			if (sessionMatcher.matches() && "POST".equals(exchange.getRequestMethod())) {
+				handleSession(exchange, sessionMatcher.group(1));
+			} else if (recordsMatcher.matches() && "GET".equals(exchange.getRequestMethod())) {
+				handleRecords(exchange, recordsMatcher.group(1), recordsMatcher.group(2));
+			} else {
+				sendJson(exchange, 404, errorBody("Not found"));
+			}
+		}
+	}
+
+	private void handleSession(HttpExchange exchange, String applicationId) throws IOException {
+		sessionRequests.incrementAndGet();
+		exchange.getRequestBody().readAllBytes();
+		if (!APPLICATION_ID.equals(applicationId)) {
+			sendJson(exchange, 400, errorBody("Unknown application"));
+			return;
+		}
+		var user = new JsonObject();
+		user.addProperty("token", token);
+		var session = new JsonObject();
+		session.add("user", user);
+		var body = new JsonObject();
+		body.add("session", session);
+		sendJson(exchange, 200, body);
+	}
+
+	private void handleRecords(HttpExchange exchange, String scene, String view)
+			throws IOException {
+		recordRequests.incrementAndGet();
+		var headers = exchange.getRequestHeaders();
+		if (rejectNextToken) {
+			rejectNextToken = false;
+			sendJson(exchange, 401, errorBody("Invalid token"));
+			return;
+		} else if (!token.equals(headers.getFirst("Authorization"))
+			|| !APPLICATION_ID.equals(headers.getFirst("X-Knack-Application-Id"))) {
+			sendJson(exchange, 401, errorBody("Invalid token"));
+			return;
+		} else if (shouldInjectError()) {
+			injectedErrors.incrementAndGet();
+			if (injectedErrors.get() % 2 == 0) {
+				exchange.getResponseHeaders().add("Retry-After", "0");
+				sendJson(exchange, 429, errorBody("Rate limit exceeded"));
+			} else {
+				sendJson(exchange, 503, errorBody("Service unavailable"));
+			}
+			return;
+		}
+
+		List<JsonObject> records;
+		if (ROSTER_SCENE.equals(scene) && ROSTER_VIEW.equals(view)) {
+			records = students;
+		} else if (COACH_SCENE.equals(scene) && COACH_VIEW.equals(view)) {
+			records = coaches;
+		} else {
+			sendJson(exchange, 404, errorBody("Unknown view"));
+			return;
+		}
+
+		var query = parseQuery(exchange.getRequestURI().getRawQuery());
+		int page = Integer.parseInt(query.getOrDefault("page", "1"));
+		int rowsPerPage = Integer.parseInt(query.getOrDefault("rows_per_page", "25"));
+		int totalPages = Math.max(1, (records.size() + rowsPerPage - 1) / rowsPerPage);
+		var pageRecords = new JsonArray();
+		records.stream()
+			.skip((long) (page - 1) * rowsPerPage)
+			.limit(rowsPerPage)
+			.forEach(pageRecords::add);
+
+		var body = new JsonObject();
+		body.addProperty("total_pages", totalPages);
+		body.addProperty("current_page", page);
+		body.addProperty("total_records", records.size());
+		body.add("records", pageRecords);
+		sendJson(exchange, 200, body);
+	}
+
+	private synchronized boolean shouldInjectError() {
+		return errorRate > 0.0 && random.nextDouble() < errorRate;
+	}
+
+	private JsonObject createStudentRecord(int index, int numSchools) {
+		var name = new JsonObject();
+		name.addProperty("first", FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+		name.addProperty("last", LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+
+		var result = new JsonObject();
+		result.addProperty("id", "student-%1$d".formatted(index));
+		result.add("field_52", name);
+		result.addProperty("field_70", NICKNAMES[random.nextInt(NICKNAMES.length)]);
+		result.add("field_56", createSchoolArray(random.nextInt(numSchools)));
+		result.addProperty("field_90", 6 + random.nextInt(7));
+		return result;
+	}
+
+	private JsonObject createCoachRecord(int index, int numSchools) {
+		var name = new JsonObject();
+		name.addProperty("first", FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]);
+		name.addProperty("last", LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+
+		var email = new JsonObject();
+		email.addProperty("email", "coach%1$d@example.org".formatted(index));
+
+		var result = new JsonObject();
+		result.addProperty("id", "coach-%1$d".formatted(index));
+		result.addProperty("account_status", "active");
+		result.addProperty("approval_status", "approved");
+		result.add("field_106", createSchoolArray(index % numSchools));
+		result.add("field_96", name);
+		result.add("field_97", email);
+		result.addProperty("field_99", "active");
+		return result;
+	}
+
+	private static JsonArray createSchoolArray(int schoolIndex) {
+		var school = new JsonObject();
+		school.addProperty("id", "school-%1$d".formatted(schoolIndex));
+		school.addProperty("identifier", "Stub School %1$d".formatted(schoolIndex));
+		var result = new JsonArray();
+		result.add(school);
+		return result;
+	}
+
+	/* Builds an unsigned JWT shaped like the ones Knack issues. */
+	private static String createToken() {
+		var claims = new JsonObject();
+		claims.addProperty("user_id", "stub-user");
+		claims.addProperty("application_id", APPLICATION_ID);
+		claims.addProperty("iat", System.currentTimeMillis() / 1000);
+		var encoder = Base64.getUrlEncoder().withoutPadding();
+		return "%1$s.%2$s.%3$s".formatted(
+			encoder.encodeToString("{\"alg\":\"none\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8)),
+			encoder.encodeToString(claims.toString().getBytes(StandardCharsets.UTF_8)),
+			"stub-signature");
+	}
+
+	private static JsonObject errorBody(String message) {
+		var error = new JsonObject();
+		error.add("message", new JsonPrimitive(message));
+		var errors = new JsonArray();
+		errors.add(error);
+		var result = new JsonObject();
+		result.add("errors", errors);
+		return result;
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		Map<String, String> result = new HashMap<>();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				String[] pieces = param.split("=", 2);
+				result.put(pieces[0], (pieces.length > 1) ? pieces[1] : "");
+			}
+		}
+		return result;
+	}
+
+	private static void sendJson(HttpExchange exchange, int statusCode, JsonObject body)
+			throws IOException {
+		byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(statusCode, bytes.length);
+		try (OutputStream os = exchange.getResponseBody()) {
+			os.write(bytes);
+		}
+	}
+
+	private static void sleep(long millis) {
+		if (millis > 0) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
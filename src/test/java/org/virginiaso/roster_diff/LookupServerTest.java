@@ -0,0 +1,133 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.jupiter.api.Test;
+
+public class LookupServerTest {
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	@Test
+	public void lookupAndReloadTest() throws IOException, InterruptedException {
+		List<Student> roster = new ArrayList<>(List.of(
+			new Student("Alice", "Smith", "", "Stub School 1", 9),
+			new Student("Robert", "Jones", "Bob", "Stub School 1", 10),
+			new Student("Alice", "Smith", "", "Stub School 2", 9)));
+		try (var server = new LookupServer(0, () -> List.copyOf(roster),
+				new WeightAvgDistanceFunction(), 5)) {
+			var base = "http://localhost:%1$d".formatted(server.getPort());
+
+			var exact = get(base + "/lookup?last=smith&first=alice&school=Stub+School+1&grade=9");
+			assertTrue(exact.get("found").getAsBoolean());
+			assertEquals(1, exact.getAsJsonArray("matches").size());
+
+			var nickName = get(base + "/lookup?last=Jones&first=Bob&school=Stub+School+1&grade=10");
+			assertTrue(nickName.get("found").getAsBoolean());
+
+			var typo = get(base + "/lookup?last=Smyth&first=Alice&school=Stub+School+1&grade=9");
+			assertFalse(typo.get("found").getAsBoolean());
+			assertEquals(1, typo.getAsJsonArray("matches").get(0).getAsJsonObject()
+				.get("distance").getAsInt());
+
+			var missing = get(base + "/lookup?last=Doe&first=Jane&school=Stub+School+1&grade=9");
+			assertFalse(missing.get("found").getAsBoolean());
+
+			roster.add(new Student("Jane", "Doe", "", "Stub School 1", 9));
+			var status = post(base + "/reload", "");
+			assertEquals(4, status.get("students").getAsInt());
+
+			var batch = JsonParser.parseString(postRaw(base + "/lookup", """
+				[{"last": "Doe", "first": "Jane", "school": "Stub School 1", "grade": "9"},
+				{"last": "Smith", "first": "Alice", "school": "Stub School 2", "grade": "9"}]
+				""")).getAsJsonArray();
+			assertEquals(2, batch.size());
+			batch.forEach(result -> assertTrue(
+				result.getAsJsonObject().get("found").getAsBoolean()));
+		}
+	}
+
+	@Test
+	public void scilympiadSchoolNameTest() throws IOException, InterruptedException {
+		var roster = List.of(new Student("Alice", "Smith", "", "Blacksburg HS", 9));
+		try (var server = new LookupServer(0, () -> roster, new WeightAvgDistanceFunction(), 5)) {
+			var base = "http://localhost:%1$d".formatted(server.getPort());
+
+			var scilympiad = get(base
+				+ "/lookup?last=Smith&first=Alice&school=Blacksburg+High+School&grade=9");
+			assertTrue(scilympiad.get("found").getAsBoolean());
+			assertEquals("Blacksburg HS", scilympiad.getAsJsonObject("query")
+				.get("school").getAsString());
+
+			var canonical = get(base + "/lookup?last=Smith&first=Alice&school=Blacksburg+HS&grade=9");
+			assertTrue(canonical.get("found").getAsBoolean());
+
+			assertEquals(400, getStatus(base
+				+ "/lookup?last=Smith&first=Alice&school=Nowhere+Academy&grade=9"));
+		}
+	}
+
+	@Test
+	public void batchFieldTypesTest() throws IOException, InterruptedException {
+		var roster = List.of(new Student("Alice", "Smith", "", "Stub School 1", 9));
+		try (var server = new LookupServer(0, () -> roster, new WeightAvgDistanceFunction(), 5)) {
+			var uri = "http://localhost:%1$d/lookup".formatted(server.getPort());
+
+			// A null is the same as an absent field:
+			var batch = JsonParser.parseString(postRaw(uri, """
+				[{"last": "Smith", "first": "Alice", "nick": null, "school": "Stub School 1",
+				"grade": 9}]
+				""")).getAsJsonArray();
+			assertTrue(batch.get(0).getAsJsonObject().get("found").getAsBoolean());
+
+			assertEquals(400, postStatus(uri, """
+				[{"last": {"name": "Smith"}, "first": "Alice", "school": "Stub School 1",
+				"grade": 9}]
+				"""));
+			assertEquals(400, postStatus(uri, """
+				[{"last": "Smith", "first": ["Alice"], "school": "Stub School 1", "grade": 9}]
+				"""));
+		}
+	}
+
+	private int getStatus(String uri) throws IOException, InterruptedException {
+		var request = HttpRequest.newBuilder(URI.create(uri)).GET().build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	private JsonObject get(String uri) throws IOException, InterruptedException {
+		var request = HttpRequest.newBuilder(URI.create(uri)).GET().build();
+		return JsonParser.parseString(client.send(request,
+			HttpResponse.BodyHandlers.ofString()).body()).getAsJsonObject();
+	}
+
+	private JsonObject post(String uri, String body) throws IOException, InterruptedException {
+		return JsonParser.parseString(postRaw(uri, body)).getAsJsonObject();
+	}
+
+	private int postStatus(String uri, String body) throws IOException, InterruptedException {
+		var request = HttpRequest.newBuilder(URI.create(uri))
+			.POST(HttpRequest.BodyPublishers.ofString(body))
+			.build();
+		return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+	}
+
+	private String postRaw(String uri, String body) throws IOException, InterruptedException {
+		var request = HttpRequest.newBuilder(URI.create(uri))
+			.POST(HttpRequest.BodyPublishers.ofString(body))
+			.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+	}
+}
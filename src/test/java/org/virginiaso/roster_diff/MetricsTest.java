@@ -0,0 +1,52 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class MetricsTest {
+	@Test
+	public void bucketBoundsTest() {
+		long previousUpperBound = -1;
+		for (int i = 0; i <= Metrics.Histogram.bucketIndex(Long.MAX_VALUE); ++i) {
+			long upperBound = Metrics.Histogram.bucketUpperBound(i);
+			assertTrue(upperBound > previousUpperBound);
+			assertEquals(i, Metrics.Histogram.bucketIndex(previousUpperBound + 1));
+			assertEquals(i, Metrics.Histogram.bucketIndex(upperBound));
+			previousUpperBound = upperBound;
+		}
+	}
+
+	@Test
+	public void percentileTest() {
+		var histogram = Metrics.get().histogram("test.percentiles");
+		for (long millis = 1; millis <= 100; ++millis) {
+			histogram.record(Duration.ofMillis(millis).toNanos());
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(Duration.ofMillis(5050), histogram.getTotal());
+		assertWithin(50, histogram.getPercentile(0.50));
+		assertWithin(90, histogram.getPercentile(0.90));
+		assertEquals(Duration.ofMillis(100), histogram.getPercentile(1.0));
+	}
+
+	@Test
+	public void counterTest() {
+		var metrics = Metrics.get();
+		metrics.add("test.counter", 40);
+		metrics.increment("test.counter");
+		metrics.increment("test.counter");
+		assertEquals(42, metrics.getCount("test.counter"));
+		assertEquals(42, metrics.toJson().getAsJsonObject("counters").get("test.counter").getAsLong());
+	}
+
+	/* A percentile is at most one eighth above the true value */
+	private static void assertWithin(long expectedMillis, Duration actual) {
+		long expected = Duration.ofMillis(expectedMillis).toNanos();
+		assertTrue(actual.toNanos() >= expected && actual.toNanos() <= expected + expected / 8,
+			"%1$s is not near %2$d ms".formatted(actual, expectedMillis));
+	}
+}
@@ -0,0 +1,50 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class PhaseRecorderTest {
+	private static final int ARRAY_SIZE = 1024 * 1024;
+	private static final int NUM_ARRAYS = 32;
+
+	@Test
+	public void exitedWorkerAllocationTest() throws IOException {
+		var recorder = new PhaseRecorder();
+		recorder.record("allocate", () -> {
+			ExecutorService pool = Executors.newFixedThreadPool(2,
+				PhaseRecorder.threadFactory("test"));
+			for (int i = 0; i < NUM_ARRAYS; ++i) {
+				pool.execute(() -> blackHole(new byte[ARRAY_SIZE]));
+			}
+			pool.shutdown();
+			try {
+				assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		});
+
+		var phases = recorder.getPhases();
+		assertEquals(1, phases.size());
+		long allocated = phases.get(0).allocatedBytes();
+		if (allocated >= 0) {	// -1 where the JVM cannot report allocation
+			assertTrue(allocated >= (long) NUM_ARRAYS * ARRAY_SIZE,
+				"Only %1$d bytes counted".formatted(allocated));
+		}
+		assertTrue(phases.get(0).peakHeapBytes() > 0);
+	}
+
+	private static volatile Object sink;
+
+	private static void blackHole(Object obj) {
+		sink = obj;
+	}
+}
@@ -0,0 +1,81 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PortalRetrieverTest {
+	private static final int NUM_STUDENTS = 1_250;
+	private static final int NUM_COACHES = 40;
+	private static final int NUM_SCHOOLS = 20;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void downloadThroughFlakyServerTest() throws IOException {
+		try (var stub = new KnackStubServer(NUM_STUDENTS, NUM_COACHES, NUM_SCHOOLS, 42L)) {
+			stub.setErrorRate(0.1);
+			var config = getStubConfiguration(stub);
+
+			var timer = Metrics.get().startTimer("test.portal.download");
+			var scheduler = new PortalRequestScheduler(config);
+			var rosterRetriever = StudentRetrieverFactory.create(config, scheduler);
+			rosterRetriever.saveReport();
+			var coachRetriever = CoachRetrieverFactory.create(config, scheduler);
+			coachRetriever.saveReport();
+			timer.stopAndReport("Downloaded %1$d records from the stub Portal",
+				NUM_STUDENTS + NUM_COACHES);
+
+			assertEquals(NUM_STUDENTS, rosterRetriever.readLatestReportFile().size());
+			assertEquals(NUM_COACHES, coachRetriever.readLatestReportFile().size());
+			assertEquals(1, stub.getSessionRequests(),
+				"The roster and coach retrievers should share one session");
+		}
+	}
+
+	@Test
+	public void rejectedTokenTest() throws IOException {
+		try (var stub = new KnackStubServer(NUM_STUDENTS, NUM_COACHES, NUM_SCHOOLS, 43L)) {
+			var config = getStubConfiguration(stub);
+			var rosterRetriever = StudentRetrieverFactory.create(config);
+			stub.rejectNextToken();
+			rosterRetriever.saveReport();
+
+			assertEquals(NUM_STUDENTS, rosterRetriever.readLatestReportFile().size());
+			assertEquals(2, stub.getSessionRequests(),
+				"A rejected token should cause exactly one new login");
+			assertTrue(tempDir.resolve("portal-session.properties").toFile().isFile());
+		}
+	}
+
+	private Configuration getStubConfiguration(KnackStubServer stub) {
+		var appName = Configuration.get().getPortalApplicationName();
+		var props = new Properties();
+		props.setProperty("portal.api.url", stub.getApiUrl());
+		props.setProperty("portal.report.dir", tempDir.resolve("portal-reports").toString());
+		props.setProperty("portal.token.file",
+			tempDir.resolve("portal-session.properties").toString());
+		props.setProperty("portal.password", "stub-password");
+		props.setProperty("portal.retry.base.delay.ms", "1");
+		props.setProperty("portal.retry.max.delay.ms", "10");
+		props.setProperty("portal.request.budget", "10000");
+		props.setProperty("portal.%1$s.application.id".formatted(appName),
+			KnackStubServer.APPLICATION_ID);
+		props.setProperty("portal.%1$s.roster.scene".formatted(appName),
+			KnackStubServer.ROSTER_SCENE);
+		props.setProperty("portal.%1$s.roster.view".formatted(appName),
+			KnackStubServer.ROSTER_VIEW);
+		props.setProperty("portal.%1$s.coach.scene".formatted(appName),
+			KnackStubServer.COACH_SCENE);
+		props.setProperty("portal.%1$s.coach.view".formatted(appName),
+			KnackStubServer.COACH_VIEW);
+		return Configuration.load(props);
+	}
+}
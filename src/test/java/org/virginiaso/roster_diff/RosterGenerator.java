@@ -0,0 +1,340 @@
+package org.virginiaso.roster_diff;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * Writes a synthetic, reproducible data set in the layout of the real inputs:
+ * the Portal roster and coach reports (JSON), the Scilympiad roster files
+ * (XLSX, in the layout that ScilympiadParser reads), and a master report whose
+ * Adjudicated Matches sheet holds the manual verdicts.
+ * <p>
+ * The output directory also gets a configuration.properties that points at
+ * these files, plus the school-names.csv and coaches-extra.csv that go with
+ * them.  Putting the output directory at the front of the class path
+ * therefore runs the roster diff against the synthetic data, without touching
+ * the real configuration.
+ */
+public class RosterGenerator {
+	private static final String USAGE = """
+		Usage: RosterGenerator [options] <output-dir>
+
+		--students <n>          Number of Portal students (default 10000)
+		--schools <n>           Number of schools (default: one per 60 students)
+		--typo-rate <r>         Fraction of Scilympiad students with a misspelled
+		                        last name (default 0.05)
+		--nickname-rate <r>     Fraction registered in Scilympiad under their
+		                        nickname (default 0.05)
+		--grade-drift-rate <r>  Fraction whose grade differs by one (default 0.02)
+		--adjudicated <r>       Fraction of pairs with a verdict in the master
+		                        report (default 0.03)
+		--suffixes <list>       Comma-separated Scilympiad roster file suffixes,
+		                        e.g. B,C (default: one file with no suffix)
+		--seed <n>              Random seed (default 42)""";
+
+	private static final String PORTAL_DIR = "portal-reports";
+	private static final String SCILYMPIAD_DIR = "scilympiad-reports";
+	static final String MASTER_REPORT = "master-report.xlsx";
+	private static final String SITE_NAME = "synthetic";
+	private static final LocalDateTime TIMESTAMP = LocalDateTime.of(2022, 3, 1, 12, 0);
+	private static final int STUDENTS_PER_TEAM = 15;
+	private static final int ROW_WINDOW_SIZE = 200;
+
+	/* Appends rows to a sheet */
+	private static class SheetWriter {
+		private final Sheet sheet;
+		private int nextRowNum;
+
+		public SheetWriter(Sheet sheet) {
+			this.sheet = sheet;
+			nextRowNum = 0;
+		}
+
+		public Row addRow(String... values) {
+			var row = sheet.createRow(nextRowNum++);
+			for (int i = 0; i < values.length; ++i) {
+				row.createCell(i).setCellValue(values[i]);
+			}
+			return row;
+		}
+	}
+
+	private final SyntheticRosters.Parameters params;
+	private final List<String> suffixes;
+	private final File outputDir;
+	// Map of canonical school name to Scilympiad school name:
+	private final Map<String, String> schoolNames;
+
+	public static void main(String[] args) {
+		try {
+			var generator = fromArgs(args);
+			generator.run();
+		} catch (CmdLineException ex) {
+			if (ex.getMessage() != null && !ex.getMessage().isBlank()) {
+				System.out.format("%n%1$s%n%n", ex.getMessage());
+			}
+		} catch (Throwable ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	private static RosterGenerator fromArgs(String[] args) throws CmdLineException {
+		Map<String, String> options = new TreeMap<>();
+		String outputDirArg = null;
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].startsWith("--")) {
+				if (i + 1 >= args.length) {
+					throw new CmdLineException("Option '%1$s' requires a value%n%n%2$s",
+						args[i], USAGE);
+				}
+				options.put(args[i], args[++i]);
+			} else if (outputDirArg == null) {
+				outputDirArg = args[i];
+			} else {
+				throw new CmdLineException("Unrecognized argument '%1$s'%n%n%2$s", args[i], USAGE);
+			}
+		}
+		if (outputDirArg == null) {
+			throw new CmdLineException("No output directory given%n%n%1$s", USAGE);
+		}
+
+		SyntheticRosters.Parameters params;
+		try {
+			int numStudents = Integer.parseInt(options.getOrDefault("--students", "10000"));
+			int numSchools = options.containsKey("--schools")
+				? Integer.parseInt(options.get("--schools"))
+				: Math.max(1, numStudents / 60);
+			params = new SyntheticRosters.Parameters(numStudents, numSchools,
+				Double.parseDouble(options.getOrDefault("--typo-rate", "0.05")),
+				Double.parseDouble(options.getOrDefault("--nickname-rate", "0.05")),
+				Double.parseDouble(options.getOrDefault("--grade-drift-rate", "0.02")),
+				Double.parseDouble(options.getOrDefault("--adjudicated", "0.03")),
+				Long.parseLong(options.getOrDefault("--seed", "42")));
+		} catch (IllegalArgumentException ex) {
+			throw new CmdLineException("%1$s%n%n%2$s", ex.getMessage(), USAGE);
+		}
+		var suffixes = options.containsKey("--suffixes")
+			? List.of(options.get("--suffixes").split(","))
+			: List.of("");
+		options.keySet().removeAll(List.of("--students", "--schools", "--typo-rate",
+			"--nickname-rate", "--grade-drift-rate", "--adjudicated", "--suffixes", "--seed"));
+		if (!options.isEmpty()) {
+			throw new CmdLineException("Unrecognized option '%1$s'%n%n%2$s",
+				options.keySet().iterator().next(), USAGE);
+		}
+		return new RosterGenerator(params, suffixes, new File(outputDirArg));
+	}
+
+	/**
+	 * @param suffixes  The Scilympiad roster file suffixes, with one file per
+	 *                  suffix
+	 * @param outputDir The directory to receive the data set
+	 */
+	RosterGenerator(SyntheticRosters.Parameters params, List<String> suffixes, File outputDir) {
+		this.params = params;
+		this.suffixes = List.copyOf(suffixes);
+		this.outputDir = outputDir;
+		schoolNames = chooseSchoolNames(params.numSchools());
+	}
+
+	void run() throws IOException {
+		var timer = Metrics.get().startTimer("generator.write");
+		var rosters = new SyntheticRosters(params, List.copyOf(schoolNames.keySet()));
+		var config = Configuration.get();
+
+		var portalDir = new File(outputDir, PORTAL_DIR);
+		StudentRetrieverFactory.create(config).writeReport(rosters.getPStudents(), portalDir,
+			TIMESTAMP);
+		CoachRetrieverFactory.create(config).writeReport(createCoaches(), portalDir, TIMESTAMP);
+		writeScilympiadRosters(rosters.getSStudents());
+		writeMasterReport(rosters.getManualMatches());
+		writeSchoolNames();
+		writeExtraCoaches();
+		writeConfiguration();
+
+		timer.stopAndReport("Wrote %1$d Portal and %2$d Scilympiad students at %3$d schools to %4$s"
+			.formatted(rosters.getPStudents().size(), rosters.getSStudents().size(),
+				schoolNames.size(), outputDir));
+	}
+
+	/*
+	 * Uses the real school names first, so that the real name mapping applies,
+	 * and then makes up as many more as needed.
+	 */
+	private static Map<String, String> chooseSchoolNames(int numSchools) {
+		Map<String, String> result = new LinkedHashMap<>();
+		try (
+			var is = Util.getResourceAsInputStream(SchoolName.RESOURCE_NAME);
+			var parser = CSVParser.parse(is, Util.CHARSET, Util.CSV_FORMAT);
+		) {
+			for (var record : parser) {
+				if (result.size() >= numSchools) {
+					break;
+				}
+				result.putIfAbsent(record.get(SchoolName.CANONICAL_NAME_COLUMN),
+					record.get(SchoolName.SCILYMPIAD_NAME_COLUMN));
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		for (int i = 1; result.size() < numSchools; ++i) {
+			result.put("Synthetic HS %1$04d".formatted(i), "Synthetic High School %1$04d".formatted(i));
+		}
+		return result;
+	}
+
+	private List<Coach> createCoaches() {
+		var random = new Random(params.seed());
+		List<Coach> result = new ArrayList<>();
+		for (String school : schoolNames.keySet()) {
+			var firstName = SyntheticRosters.FIRST_NAMES[
+				random.nextInt(SyntheticRosters.FIRST_NAMES.length)];
+			var lastName = SyntheticRosters.LAST_NAMES[
+				random.nextInt(SyntheticRosters.LAST_NAMES.length)];
+			var email = "%1$s.%2$s.%3$d@example.org".formatted(firstName, lastName, result.size())
+				.toLowerCase();
+			result.add(new Coach(firstName, lastName, email, school));
+		}
+		return result;
+	}
+
+	/*
+	 * Each school's students are split into teams, and the schools are dealt
+	 * out among the roster files.
+	 */
+	private void writeScilympiadRosters(List<Student> sStudents) throws IOException {
+		Map<String, List<Student>> studentsBySchool = sStudents.stream().collect(
+			Collectors.groupingBy(Student::school, TreeMap::new, Collectors.toList()));
+		var scilympiadDir = new File(outputDir, SCILYMPIAD_DIR);
+		scilympiadDir.mkdirs();
+		for (int fileNum = 0; fileNum < suffixes.size(); ++fileNum) {
+			var suffix = suffixes.get(fileNum);
+			var division = suffix.matches("[ABC]") ? suffix : "B";
+			var file = new File(scilympiadDir, "roster%1$s-%2$tF.xlsx".formatted(suffix, TIMESTAMP));
+			try (var workbook = new SXSSFWorkbook(ROW_WINDOW_SIZE)) {
+				var sheet = new SheetWriter(workbook.createSheet("Roster"));
+				sheet.addRow("Team Number", "Student Name", "Login ID", "Grade");
+				int teamNum = 0;
+				int schoolNum = 0;
+				for (var entry : studentsBySchool.entrySet()) {
+					if (schoolNum++ % suffixes.size() != fileNum) {
+						continue;
+					}
+					sheet.addRow("School: " + schoolNames.get(entry.getKey()));
+					var students = entry.getValue();
+					for (int i = 0; i < students.size(); ++i) {
+						if (i % STUDENTS_PER_TEAM == 0) {
+							++teamNum;
+							sheet.addRow("Team Name: %1$s %2$d".formatted(
+								entry.getKey(), 1 + i / STUDENTS_PER_TEAM));
+						}
+						var student = students.get(i);
+						sheet.addRow("%1$s%2$d".formatted(division, teamNum),
+							"%1$s, %2$s".formatted(student.lastName(), student.firstName()),
+							"%1$s%2$d".formatted(division, teamNum * 100 + i % STUDENTS_PER_TEAM),
+							"%1$dth".formatted(student.grade()));
+					}
+				}
+				write(workbook, file);
+			}
+		}
+	}
+
+	private void writeMasterReport(List<Match> matches) throws IOException {
+		try (var workbook = new SXSSFWorkbook(ROW_WINDOW_SIZE)) {
+			var sheet = new SheetWriter(workbook.createSheet(ReportBuilder.MATCHES_SHEET_TITLE));
+			sheet.addRow("Source", "Distance", "School", "Last Name", "First Name",
+				"Nickname", "Grade", "Verdict");
+			for (var match : matches) {
+				var sStudent = match.getSStudent();
+				var pStudent = match.getPStudent();
+				addStudentRow(sheet, ReportBuilder.SCILYMPIAD_ROW_LABEL, sStudent, "");
+				addStudentRow(sheet, ReportBuilder.PORTAL_ROW_LABEL, pStudent,
+					match.getVerdict() == Verdict.SAME ? "Same" : "Different");
+			}
+			write(workbook, new File(outputDir, MASTER_REPORT));
+		}
+	}
+
+	private void writeSchoolNames() throws IOException {
+		try (var printer = new CSVPrinter(createWriter(SchoolName.RESOURCE_NAME),
+				Util.CSV_FORMAT.builder().setHeader(SchoolName.SCILYMPIAD_NAME_COLUMN,
+					SchoolName.CANONICAL_NAME_COLUMN).build())) {
+			for (var entry : schoolNames.entrySet()) {
+				printer.printRecord(entry.getValue(), entry.getKey());
+			}
+		}
+	}
+
+	/* Every school has a Portal coach, so no extra coaches are needed */
+	private void writeExtraCoaches() throws IOException {
+		try (var printer = new CSVPrinter(createWriter(ConsolidatedCoachRetriever.RESOURCE_NAME),
+				Util.CSV_FORMAT.builder().setHeader(ConsolidatedCoachRetriever.SCHOOL_COLUMN,
+					ConsolidatedCoachRetriever.NAME_COLUMN,
+					ConsolidatedCoachRetriever.EMAIL_COLUMN).build())) {
+			printer.flush();
+		}
+	}
+
+	private void writeConfiguration() throws IOException {
+		var props = new Properties();
+		props.putAll(Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE));
+		var dir = outputDir.getAbsoluteFile();
+		props.setProperty("master.report.file", new File(dir, MASTER_REPORT).getPath());
+		props.setProperty("adjudication.log.file", new File(dir, "adjudications.log").getPath());
+		props.setProperty("report.digest.file", new File(dir, "report-digests.csv").getPath());
+		props.setProperty("send.reports", "false");
+		props.setProperty("mail.outbox.dir", new File(dir, "outbox").getPath());
+		props.setProperty("portal.report.dir", new File(dir, PORTAL_DIR).getPath());
+		props.setProperty("portal.token.file", new File(dir, ".portal-session.properties").getPath());
+		props.remove("scilympiad.sites");
+		props.setProperty("scilympiad.site", SITE_NAME);
+		props.setProperty("scilympiad.report.dir", new File(dir, SCILYMPIAD_DIR).getPath());
+		props.setProperty("scilympiad.%1$s.suffixes".formatted(SITE_NAME),
+			String.join(",", suffixes));
+		try (var wtr = createWriter(Util.CONFIGURATION_RESOURCE)) {
+			props.store(wtr, "Synthetic data set, seed %1$d".formatted(params.seed()));
+		}
+	}
+
+	private static void addStudentRow(SheetWriter sheet, String source, Student student,
+			String verdict) {
+		var row = sheet.addRow(source, "", student.school(), student.lastName(),
+			student.firstName(), student.nickName());
+		row.createCell(6).setCellValue(student.grade());
+		row.createCell(7).setCellValue(verdict);
+	}
+
+	private static void write(Workbook workbook, File file) throws IOException {
+		try (OutputStream os = new FileOutputStream(file)) {
+			workbook.write(os);
+		}
+	}
+
+	private Writer createWriter(String fileName) throws IOException {
+		outputDir.mkdirs();
+		return new OutputStreamWriter(new FileOutputStream(new File(outputDir, fileName)),
+			Util.CHARSET);
+	}
+}
@@ -0,0 +1,60 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class RosterPartitionerTest {
+	private static final int NUM_SCHOOLS = 20;
+
+	@Test
+	public void mergedPartitionsEqualOneComparisonTest() {
+		var rosters = new SyntheticRosters(new SyntheticRosters.Parameters(1_200, NUM_SCHOOLS,
+			0.05, 0.2, 0.05, 0.03, 11L));
+		var pStudents = rosters.getPStudents();
+		var sStudents = rosters.getSStudents();
+
+		// A manual match between two schools, which must share a partition:
+		var sStudent = sStudents.get(0);
+		var pStudent = pStudents.stream()
+			.filter(student -> !student.school().equals(sStudent.school()))
+			.findFirst()
+			.orElseThrow();
+		List<Match> manualMatches = new ArrayList<>(rosters.getManualMatches());
+		manualMatches.add(new Match(sStudent, pStudent, Verdict.SAME));
+
+		var distanceFunction = new WeightAvgDistanceFunction();
+		var pIndex = new RosterIndex(pStudents, distanceFunction);
+		var single = DifferenceEngine.compare(manualMatches, pIndex, sStudents,
+			DifferenceEngine.Mode.HASHED);
+
+		var partitions = new RosterPartitioner(distanceFunction).split(manualMatches,
+			pIndex.getStudents(), sStudents);
+		assertEquals(NUM_SCHOOLS - 1, partitions.size());
+		var merged = DifferenceEngine.merge(partitions.stream()
+			.map(partition -> DifferenceEngine.compare(partition, distanceFunction))
+			.toList());
+
+		assertEquals(single.getResults(), merged.getResults());
+		assertEquals(single.getPStudentsNotFoundInS(), merged.getPStudentsNotFoundInS());
+		assertEquals(single.getSStudentsNotFoundInP(), merged.getSStudentsNotFoundInP());
+		assertEquals(describe(single.getMatches()), describe(merged.getMatches()));
+		assertEquals(single.getSchoolIndex(), merged.getSchoolIndex());
+		assertTrue(describe(merged.getMatches()).contains(
+			describe(List.of(new Match(sStudent, pStudent, Verdict.SAME))).iterator().next()));
+	}
+
+	private static Set<String> describe(Collection<Match> matches) {
+		return matches.stream()
+			.map(match -> "%1$s %2$s %3$s".formatted(match.getVerdict(), match.getSStudent(),
+				match.getPStudent()))
+			.collect(Collectors.toSet());
+	}
+}
@@ -0,0 +1,64 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SchoolDigestStoreTest {
+	private static final Duration REMINDER_INTERVAL = Duration.ofDays(3);
+	private static final String ALPHA = "Alpha High School";
+	private static final String BETA = "Beta Middle School";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void notificationDueTest() {
+		var store = new SchoolDigestStore(getStoreFile(), REMINDER_INTERVAL);
+		assertTrue(store.isNotificationDue(ALPHA, "digest-1"), "A new school is due");
+
+		store.recordNotification(ALPHA, "digest-1");
+		assertFalse(store.isNotificationDue(ALPHA, "digest-1"));
+		assertTrue(store.isNotificationDue(ALPHA, "digest-2"), "A changed school is due");
+		assertTrue(store.isNotificationDue(BETA, "digest-1"));
+
+		store.forget(ALPHA);
+		assertTrue(store.isNotificationDue(ALPHA, "digest-1"), "A forgotten school is due");
+	}
+
+	@Test
+	public void reminderIntervalTest() {
+		var store = new SchoolDigestStore(getStoreFile(), Duration.ZERO);
+		store.recordNotification(ALPHA, "digest-1");
+		assertTrue(store.isNotificationDue(ALPHA, "digest-1"),
+			"A reminder is due once the interval has elapsed");
+	}
+
+	@Test
+	public void saveAndLoadTest() {
+		var store = new SchoolDigestStore(getStoreFile(), REMINDER_INTERVAL);
+		store.recordNotification(ALPHA, "digest-1");
+		store.recordNotification(BETA, "digest-2");
+		store.forget(BETA);
+		store.save();
+
+		var reloaded = new SchoolDigestStore(getStoreFile(), REMINDER_INTERVAL);
+		assertFalse(reloaded.isNotificationDue(ALPHA, "digest-1"));
+		assertTrue(reloaded.isNotificationDue(ALPHA, "digest-3"));
+		assertTrue(reloaded.isNotificationDue(BETA, "digest-2"));
+
+		// The notice time survives the round trip, so the reminder still falls due:
+		assertTrue(new SchoolDigestStore(getStoreFile(), Duration.ZERO)
+			.isNotificationDue(ALPHA, "digest-1"));
+	}
+
+	private File getStoreFile() {
+		return tempDir.resolve("report-digests.csv").toFile();
+	}
+}
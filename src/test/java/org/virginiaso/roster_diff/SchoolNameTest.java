@@ -15,8 +15,7 @@ import org.junit.jupiter.api.Test;
 public class SchoolNameTest {
 	@Test
 	public void allPortalSchoolsPresentTest() throws IOException {
-		var props = Util.loadPropertiesFromResource(Util.CONFIGURATION_RESOURCE);
-		var reportDir = Util.parseFileArgument(props, "portal.report.dir");
+		var reportDir = Configuration.get().getPortalReportDir();
 		if (!reportDir.isDirectory()) {
 			return;
 		}
@@ -0,0 +1,146 @@
+package org.virginiaso.roster_diff;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal in-process SMTP server that accepts and discards mail, for
+ * testing and benchmarking Emailer without a real mail server.  It can add
+ * latency per message and drop each connection after a given number of
+ * messages, to exercise reconnection.
+ */
+public class SmtpStubServer implements AutoCloseable {
+	private final ServerSocket serverSocket;
+	private final ExecutorService executor;
+	private final AtomicInteger connections;
+	private final AtomicInteger messages;
+	private volatile long latencyMillis;
+	private volatile int dropConnectionAfter;
+
+	public SmtpStubServer() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		executor = Executors.newCachedThreadPool();
+		connections = new AtomicInteger(0);
+		messages = new AtomicInteger(0);
+		latencyMillis = 0;
+		dropConnectionAfter = Integer.MAX_VALUE;
+		executor.execute(this::acceptLoop);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** Returns mail properties that direct a javax.mail Session to this server. */
+	public Properties getMailProperties() {
+		var props = new Properties();
+		props.setProperty("mail.smtp.host", serverSocket.getInetAddress().getHostAddress());
+		props.setProperty("mail.smtp.port", Integer.toString(getPort()));
+		props.setProperty("mail.from", "stub-sender@example.org");
+		return props;
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	public void setDropConnectionAfter(int numMessages) {
+		dropConnectionAfter = numMessages;
+	}
+
+	public int getConnections() {
+		return connections.get();
+	}
+
+	public int getMessages() {
+		return messages.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	private void acceptLoop() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				connections.incrementAndGet();
+				executor.execute(() -> converse(socket));
+			} catch (IOException ex) {
+				// The server socket was closed
+			}
+		}
+	}
+
+	private void converse(Socket socket) {
+		try (
+			socket;
+			var rdr = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), StandardCharsets.US_ASCII));
+			Writer wtr = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII);
+		) {
+			reply(wtr, "220 stub.example.org ESMTP ready");
+			int messagesOnConnection = 0;
+			for (String line; (line = rdr.readLine()) != null;) {
+				var command = line.toUpperCase(Locale.ROOT);
+				if (command.startsWith("EHLO")) {
+					reply(wtr, "250-stub.example.org");
+					reply(wtr, "250 8BITMIME");
+				} else if (command.startsWith("HELO")) {
+					reply(wtr, "250 stub.example.org");
+				} else if (command.startsWith("MAIL FROM") || command.startsWith("RCPT TO")
+					|| command.startsWith("RSET") || command.startsWith("NOOP")) {
+					reply(wtr, "250 OK");
+				} else if (command.startsWith("DATA")) {
+					reply(wtr, "354 End data with <CR><LF>.<CR><LF>");
+					while ((line = rdr.readLine()) != null && !line.equals(".")) {
+						// Discard the message content
+					}
+					sleep(latencyMillis);
+					messages.incrementAndGet();
+					reply(wtr, "250 OK queued");
+					if (++messagesOnConnection >= dropConnectionAfter) {
+						return;	// Hang up without a QUIT exchange
+					}
+				} else if (command.startsWith("QUIT")) {
+					reply(wtr, "221 Bye");
+					return;
+				} else {
+					reply(wtr, "502 Command not implemented");
+				}
+			}
+		} catch (IOException ex) {
+			// The client hung up
+		}
+	}
+
+	private static void reply(Writer wtr, String line) throws IOException {
+		wtr.write(line);
+		wtr.write("\r\n");
+		wtr.flush();
+	}
+
+	private static void sleep(long millis) {
+		if (millis > 0) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.virginiaso.roster_diff;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+public class StudentTest {
+	private static final Student ANN = new Student("Ann", "Smith", "Annie", "Alpha HS", 9);
+
+	@Test
+	public void equalsAndHashCodeTest() {
+		var same = new Student("Ann", "Smith", "Annie", "Alpha HS", 9);
+		assertEquals(ANN, same);
+		assertEquals(ANN.hashCode(), same.hashCode());
+		assertEquals(0, ANN.compareTo(same));
+
+		// The cached hash is the same value that Objects.hash would compute:
+		assertEquals(Objects.hash("Alpha HS", "Smith", "Ann", "Annie", 9), ANN.hashCode());
+
+		// Each field takes part in equality:
+		for (Student other : List.of(
+				new Student("Anne", "Smith", "Annie", "Alpha HS", 9),
+				new Student("Ann", "Smyth", "Annie", "Alpha HS", 9),
+				new Student("Ann", "Smith", "", "Alpha HS", 9),
+				new Student("Ann", "Smith", "Annie", "Beta HS", 9),
+				new Student("Ann", "Smith", "Annie", "Alpha HS", 10))) {
+			assertNotEquals(ANN, other);
+			assertNotEquals(0, ANN.compareTo(other));
+			assertEquals(-Integer.signum(ANN.compareTo(other)),
+				Integer.signum(other.compareTo(ANN)));
+		}
+		assertNotEquals(ANN, null);
+		assertNotEquals(ANN, "Ann Smith");
+	}
+
+	@Test
+	public void nullFieldsTest() {
+		var noNames = new Student(null, null, null, null, 7);
+		assertEquals(noNames, new Student(null, null, null, null, 7));
+		assertEquals(Objects.hash(null, null, null, null, 7), noNames.hashCode());
+		assertTrue(noNames.compareTo(ANN) < 0, "Nulls should sort first");
+		assertTrue(ANN.compareTo(noNames) > 0);
+	}
+
+	@Test
+	public void orderTest() {
+		// School first, then last, first, and nickname, then grade:
+		var expected = List.of(
+			new Student("Zed", "Adams", "", "Alpha HS", 12),
+			new Student("Amy", "Baker", "", "Alpha HS", 9),
+			new Student("Amy", "Baker", "", "Alpha HS", 10),
+			new Student("Bea", "Baker", "", "Alpha HS", 9),
+			new Student("Amy", "Adams", "", "Beta HS", 9));
+		List<Student> sorted = new ArrayList<>(expected);
+		Collections.reverse(sorted);
+		sorted.sort(null);
+		assertEquals(expected, sorted);
+	}
+}
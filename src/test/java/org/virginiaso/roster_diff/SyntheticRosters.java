@@ -0,0 +1,203 @@
+package org.virginiaso.roster_diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Generates a reproducible pair of synthetic rosters for tests and
+ * benchmarks.  Most Portal students also appear in Scilympiad, some of them
+ * with a typo in their last name, under their nickname, or in a different
+ * grade, and a fraction of the pairs are adjudicated as manual matches.  A few
+ * students appear on only one side.  The same parameters always yield the
+ * same rosters.
+ */
+public class SyntheticRosters {
+	static final String[] FIRST_NAMES = {
+		"Aaliyah", "Aarav", "Abigail", "Aiden", "Alexander", "Amelia", "Andrew", "Anika",
+		"Aria", "Ava", "Benjamin", "Brooklyn", "Caleb", "Camila", "Carter", "Charlotte",
+		"Chloe", "Daniel", "David", "Diya", "Dylan", "Eleanor", "Elijah", "Elizabeth",
+		"Ella", "Emily", "Emma", "Ethan", "Evelyn", "Gabriel", "Grace", "Hannah",
+		"Harper", "Henry", "Isaac", "Isabella", "Ishaan", "Jackson", "Jacob", "James",
+		"Jayden", "John", "Joseph", "Joshua", "Julian", "Kai", "Layla", "Leah",
+		"Liam", "Lily", "Logan", "Lucas", "Luna", "Madison", "Mason", "Matthew",
+		"Maya", "Mia", "Michael", "Mila", "Naomi", "Noah", "Nora", "Oliver",
+		"Owen", "Priya", "Riley", "Rohan", "Samuel", "Sarah", "Scarlett", "Sebastian",
+		"Sofia", "Sophia", "Theodore", "Victoria", "William", "Wyatt", "Zoe", "Zoey"
+	};
+	static final String[] LAST_NAMES = {
+		"Adams", "Allen", "Anderson", "Bailey", "Baker", "Bell", "Brooks", "Brown",
+		"Campbell", "Carter", "Chen", "Clark", "Collins", "Cook", "Cooper", "Cruz",
+		"Davis", "Diaz", "Edwards", "Evans", "Flores", "Garcia", "Gomez", "Gonzalez",
+		"Gray", "Green", "Gupta", "Hall", "Harris", "Hernandez", "Hill", "Huang",
+		"Hughes", "Jackson", "James", "Johnson", "Jones", "Kelly", "Khan", "Kim",
+		"King", "Kumar", "Lee", "Lewis", "Lopez", "Martin", "Martinez", "Miller",
+		"Mitchell", "Moore", "Morgan", "Morris", "Murphy", "Nelson", "Nguyen", "Parker",
+		"Patel", "Perez", "Peterson", "Phillips", "Ramirez", "Reed", "Reyes", "Richardson",
+		"Rivera", "Roberts", "Robinson", "Rodriguez", "Rogers", "Sanchez", "Scott", "Shah",
+		"Singh", "Smith", "Stewart", "Taylor", "Thomas", "Thompson", "Torres", "Turner",
+		"Walker", "Wang", "Ward", "Watson", "White", "Williams", "Wilson", "Wood",
+		"Wright", "Wu", "Yang", "Young", "Zhang"
+	};
+	static final Map<String, String> NICKNAMES = Map.ofEntries(
+		Map.entry("Abigail", "Abby"), Map.entry("Alexander", "Alex"),
+		Map.entry("Andrew", "Drew"), Map.entry("Benjamin", "Ben"),
+		Map.entry("Charlotte", "Charlie"), Map.entry("Daniel", "Dan"),
+		Map.entry("Elizabeth", "Liz"), Map.entry("Gabriel", "Gabe"),
+		Map.entry("Isabella", "Bella"), Map.entry("Jacob", "Jake"),
+		Map.entry("Joseph", "Joe"), Map.entry("Joshua", "Josh"),
+		Map.entry("Madison", "Maddie"), Map.entry("Matthew", "Matt"),
+		Map.entry("Michael", "Mike"), Map.entry("Samuel", "Sam"),
+		Map.entry("Sophia", "Sophie"), Map.entry("Theodore", "Theo"),
+		Map.entry("Victoria", "Tori"), Map.entry("William", "Will"));
+	// The fractions of students who appear on only one side:
+	private static final double PORTAL_ONLY_FRACTION = 0.05;
+	private static final double SCILYMPIAD_ONLY_FRACTION = 0.02;
+	private static final int STUDENTS_PER_SCHOOL = 60;
+
+	/**
+	 * The generator's controls.  Each rate is the fraction of the Scilympiad
+	 * students that differ from their Portal counterparts in that way, and
+	 * adjudicatedFraction is the fraction whose pairing is recorded in the
+	 * master report.
+	 */
+	public static record Parameters(int numStudents, int numSchools, double typoRate,
+		double nicknameRate, double gradeDriftRate, double adjudicatedFraction, long seed) {
+
+		public Parameters {
+			if (numStudents < 1 || numSchools < 1) {
+				throw new IllegalArgumentException(
+					"The numbers of students and schools must be positive");
+			}
+			for (double rate : new double[] { typoRate, nicknameRate, gradeDriftRate,
+					adjudicatedFraction }) {
+				if (rate < 0.0 || rate > 1.0) {
+					throw new IllegalArgumentException(
+						"Rate %1$s is not between 0 and 1".formatted(rate));
+				}
+			}
+		}
+
+		/** Returns parameters with typos and adjudications only, and about 60 students per school. */
+		public static Parameters of(int numStudents, double typoRate, double adjudicatedFraction,
+				long seed) {
+			return new Parameters(numStudents, Math.max(1, numStudents / STUDENTS_PER_SCHOOL),
+				typoRate, 0.0, 0.0, adjudicatedFraction, seed);
+		}
+	}
+
+	private final List<Student> pStudents;
+	private final List<Student> sStudents;
+	private final List<Match> manualMatches;
+
+	/**
+	 * @param numStudents         The number of Portal students
+	 * @param typoRate            The fraction of Scilympiad students with a
+	 *                            misspelled name
+	 * @param manualMatchFraction The fraction of Scilympiad students whose
+	 *                            pairing is recorded in the master report
+	 * @param seed                The random seed
+	 */
+	public SyntheticRosters(int numStudents, double typoRate, double manualMatchFraction,
+			long seed) {
+		this(Parameters.of(numStudents, typoRate, manualMatchFraction, seed));
+	}
+
+	public SyntheticRosters(Parameters params) {
+		this(params, IntStream.range(0, params.numSchools())
+			.mapToObj("Synthetic School %1$03d"::formatted)
+			.collect(Collectors.toUnmodifiableList()));
+	}
+
+	/**
+	 * @param schools The (canonical) names of the schools, one per school in
+	 *                the parameters
+	 */
+	public SyntheticRosters(Parameters params, List<String> schools) {
+		if (schools.size() != params.numSchools()) {
+			throw new IllegalArgumentException("Expected %1$d school names, not %2$d"
+				.formatted(params.numSchools(), schools.size()));
+		}
+		var random = new Random(params.seed());
+		pStudents = new ArrayList<>(params.numStudents());
+		sStudents = new ArrayList<>(params.numStudents());
+		manualMatches = new ArrayList<>();
+		for (int i = 0; i < params.numStudents(); ++i) {
+			var firstName = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+			var nickName = NICKNAMES.get(firstName);
+			boolean useNickName = nickName != null && random.nextDouble() < params.nicknameRate();
+			var pStudent = new Student(
+				firstName,
+				LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+				useNickName ? nickName : "",
+				schools.get(random.nextInt(schools.size())),
+				6 + random.nextInt(7));
+			pStudents.add(pStudent);
+			if (random.nextDouble() < PORTAL_ONLY_FRACTION) {
+				continue;
+			}
+
+			var sStudent = new Student(
+				useNickName ? nickName : pStudent.firstName(),
+				(random.nextDouble() < params.typoRate())
+					? misspell(pStudent.lastName(), random)
+					: pStudent.lastName(),
+				"",
+				pStudent.school(),
+				(random.nextDouble() < params.gradeDriftRate())
+					? driftGrade(pStudent.grade(), random)
+					: pStudent.grade());
+			sStudents.add(sStudent);
+			if (random.nextDouble() < params.adjudicatedFraction()) {
+				manualMatches.add(new Match(sStudent, pStudent, random.nextInt(4) == 0
+					? Verdict.DIFFERENT
+					: Verdict.SAME));
+			}
+		}
+		int numScilympiadOnly = (int) Math.round(params.numStudents() * SCILYMPIAD_ONLY_FRACTION);
+		for (int i = 0; i < numScilympiadOnly; ++i) {
+			sStudents.add(new Student(
+				FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+				LAST_NAMES[random.nextInt(LAST_NAMES.length)],
+				"",
+				schools.get(random.nextInt(schools.size())),
+				6 + random.nextInt(7)));
+		}
+		Collections.shuffle(sStudents, random);
+	}
+
+	public List<Student> getPStudents() {
+		return Collections.unmodifiableList(pStudents);
+	}
+
+	public List<Student> getSStudents() {
+		return Collections.unmodifiableList(sStudents);
+	}
+
+	public List<Match> getManualMatches() {
+		return Collections.unmodifiableList(manualMatches);
+	}
+
+	/* Substitutes, drops, or doubles one letter */
+	static String misspell(String name, Random random) {
+		var buffer = new StringBuilder(name);
+		int i = 1 + random.nextInt(name.length() - 1);
+		switch (random.nextInt(3)) {
+			case 0 -> buffer.setCharAt(i, (char) ('a' + random.nextInt(26)));
+			case 1 -> buffer.deleteCharAt(i);
+			default -> buffer.insert(i, buffer.charAt(i));
+		}
+		return buffer.toString();
+	}
+
+	/* Moves the grade up or down by one, staying within 6 to 12 */
+	private static int driftGrade(int grade, Random random) {
+		return (grade == 6 || (grade < 12 && random.nextBoolean()))
+			? grade + 1
+			: grade - 1;
+	}
+}